@@ -0,0 +1,63 @@
+import jakarta.mail.MessagingException;
+import jakarta.mail.Transport;
+import jakarta.mail.internet.MimeMessage;
+import java.io.File;
+import java.nio.file.Path;
+import java.util.List;
+
+// bench.MailClient over the real EmailReceiver and EmailSender (see MailClient for why this is separate)
+public class BenchmarkClient implements bench.MailClient {
+    private final String user;
+    private final EmailReceiver receiver;
+    private final EmailSender sender;
+    private Transport transport;
+
+    public BenchmarkClient(String user, String password, String host, int imapPort, int smtpPort) {
+        this.user = user;
+        this.receiver = new EmailReceiver(user, password, host, imapPort, false);
+        this.sender = new EmailSender(user, password, host, smtpPort);
+    }
+
+    @Override public long[] uids(String folder, int count) throws Exception {
+        List<EmailReceiver.EmailHeader> headers = receiver.getHeadersBySequence(folder, 1, count);
+        return headers.stream().mapToLong(h -> h.uid).sorted().toArray();
+    }
+
+    @Override public List<String> folderList() {
+        return receiver.getFolderList();
+    }
+
+    @Override public int headerPage(String folder, int first, int last) throws Exception {
+        return receiver.getHeadersBySequence(folder, first, last).size();
+    }
+
+    @Override public void forgetBody(String folder, long uid) {
+        MessageCache.forAccount(user).folder(folder).dropContent(uid);
+    }
+
+    @Override public String readBody(String folder, long uid) throws Exception {
+        EmailReceiver.EmailContent content = receiver.fetchEmailByUid(folder, uid);
+        return content != null ? content.htmlBody : null;
+    }
+
+    @Override public Path download(String folder, long uid, String fileName) throws Exception {
+        return receiver.downloadAttachmentByUid(folder, uid, fileName, null, null);
+    }
+
+    @Override public void send(String to, String subject, String html, List<File> attachments) throws Exception {
+        if (transport == null || !transport.isConnected()) transport = sender.openTransport();
+        MimeMessage message = sender.buildMessage(to, subject, html, attachments);
+        transport.sendMessage(message, message.getAllRecipients());
+    }
+
+    @Override public String report() {
+        return Metrics.report();
+    }
+
+    @Override public void close() {
+        if (transport != null) {
+            try { transport.close(); } catch (MessagingException ignored) {}
+        }
+        receiver.close();
+    }
+}
@@ -0,0 +1,53 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// Attachment download over IMAP, streamed to a file the way the reading pane's
+// download button does it. The previous copy is deleted first so nothing is resumed.
+// MB/s is attachmentKb / 1024 divided by the reported seconds per op.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AttachmentBenchmark {
+
+    @Param("20")
+    int messages;
+
+    @Param({ "64", "1024", "8192" })
+    int attachmentKb;
+
+    MailServer server;
+    MailClient client;
+    long[] uids;
+    int next;
+
+    @Setup(Level.Trial)
+    public void start() throws Exception {
+        server = MailServer.start(messages, "attachment", attachmentKb);
+        client = server.client();
+        uids = client.uids("INBOX", messages);
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        System.out.println(client.report());
+        client.close();
+        server.stop();
+    }
+
+    @Setup(Level.Invocation)
+    public void removeDownload() throws Exception {
+        Files.deleteIfExists(server.downloadPath());
+    }
+
+    @Benchmark
+    public Path download() throws Exception {
+        return client.download("INBOX", uids[next++ % uids.length], MailServer.ATTACHMENT_NAME);
+    }
+}
@@ -0,0 +1,41 @@
+package bench;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.List;
+
+// The client's engines as the benchmarks see them. JMH needs benchmarks in a
+// named package and the client lives in the default package, which a named
+// package cannot import, so BenchmarkClient (default package, next to the
+// client's classes) implements this and is loaded by name.
+public interface MailClient extends AutoCloseable {
+
+    static MailClient connect(String user, String password, String host, int imapPort, int smtpPort) throws Exception {
+        return (MailClient) Class.forName("BenchmarkClient")
+                .getConstructor(String.class, String.class, String.class, int.class, int.class)
+                .newInstance(user, password, host, imapPort, smtpPort);
+    }
+
+    // UIDs of the first 'count' messages, oldest first
+    long[] uids(String folder, int count) throws Exception;
+
+    List<String> folderList();
+
+    // One page of the inbox table; returns how many headers came back
+    int headerPage(String folder, int first, int last) throws Exception;
+
+    // Drops the message's body from the local cache, so the next read goes to the server
+    void forgetBody(String folder, long uid);
+
+    String readBody(String folder, long uid) throws Exception;
+
+    Path download(String folder, long uid, String fileName) throws Exception;
+
+    // Builds the message from compose-screen input and sends it on a connection kept open
+    void send(String to, String subject, String html, List<File> attachments) throws Exception;
+
+    // The client's own metrics (timers, counters, wire bytes against payload), printed at the end of a trial
+    String report();
+
+    @Override void close();
+}
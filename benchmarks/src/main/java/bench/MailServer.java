@@ -0,0 +1,203 @@
+package bench;
+
+import com.icegreen.greenmail.Managers;
+import com.icegreen.greenmail.imap.ImapHandler;
+import com.icegreen.greenmail.server.AbstractServer;
+import com.icegreen.greenmail.server.ProtocolHandler;
+import com.icegreen.greenmail.smtp.SmtpServer;
+import com.icegreen.greenmail.user.GreenMailUser;
+import com.icegreen.greenmail.util.GreenMail;
+import com.icegreen.greenmail.util.ServerSetup;
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+import jakarta.mail.internet.InternetAddress;
+import jakarta.mail.internet.MimeBodyPart;
+import jakarta.mail.internet.MimeMessage;
+import jakarta.mail.internet.MimeMultipart;
+import java.io.IOException;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+
+// A GreenMail IMAP + SMTP server on free loopback ports, with one account whose
+// INBOX is filled with synthetic mail. Everything stays in this JVM, so the
+// benchmarks run offline. Shapes, from cheapest to parse to most expensive:
+//   plain       a few KB of text/plain
+//   html        multipart/alternative, text and HTML
+//   attachment  multipart/mixed: the alternative part, an inline image and a binary attachment
+public final class MailServer {
+    static final String USER = "bench@example.com";
+    static final String PASSWORD = "bench";
+    static final String ATTACHMENT_NAME = "report.bin";
+
+    private final NoDelayGreenMail greenMail;
+    private final Path dataDir;
+
+    private MailServer(NoDelayGreenMail greenMail, Path dataDir) {
+        this.greenMail = greenMail;
+        this.dataDir = dataDir;
+    }
+
+    // The client's caches and downloads go to a fresh temporary directory, so every run starts cold
+    static MailServer start(int messages, String shape, int attachmentKb) throws IOException, MessagingException {
+        NoDelayGreenMail greenMail = new NoDelayGreenMail(ServerSetup.dynamicPort(new ServerSetup[] {
+                new ServerSetup(0, "127.0.0.1", ServerSetup.PROTOCOL_SMTP),
+                new ServerSetup(0, "127.0.0.1", ServerSetup.PROTOCOL_IMAP) }));
+        greenMail.start();
+        GreenMailUser user = greenMail.setUser(USER, USER, PASSWORD);
+
+        Session session = Session.getInstance(new Properties());
+        Random random = new Random(42);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < messages; i++) {
+            user.deliver(message(session, random, i, shape, attachmentKb, new Date(now - (messages - i) * 60_000L)));
+        }
+
+        Path dataDir = Files.createTempDirectory("golden-bench");
+        System.setProperty("golden.data.dir", dataDir.resolve("data").toString());
+        System.setProperty("user.home", dataDir.toString()); // attachment downloads land in <user.home>/Downloads
+        Files.createDirectories(dataDir.resolve("Downloads"));
+        return new MailServer(greenMail, dataDir);
+    }
+
+    // The client under test, logged in to this server
+    MailClient client() throws Exception {
+        return MailClient.connect(USER, PASSWORD, "127.0.0.1", greenMail.port(ServerSetup.PROTOCOL_IMAP), greenMail.port(ServerSetup.PROTOCOL_SMTP));
+    }
+
+    Path downloadPath() {
+        return dataDir.resolve("Downloads").resolve(ATTACHMENT_NAME);
+    }
+
+    // Delivered mail piles up in the server's memory otherwise
+    void purge() throws Exception {
+        greenMail.purgeEmailFromAllMailboxes();
+    }
+
+    void stop() {
+        greenMail.stop();
+    }
+
+    // GreenMail leaves Nagle on for accepted sockets, and its replies go out in
+    // several small writes, so each round trip waits ~40 ms for the client's
+    // delayed ACK. That would swamp everything measured here.
+    private static final class NoDelayGreenMail extends GreenMail {
+        NoDelayGreenMail(ServerSetup[] setups) {
+            super(setups);
+        }
+
+        @Override
+        protected Map<String, AbstractServer> createServices(ServerSetup[] setups, Managers managers) {
+            Map<String, AbstractServer> services = new HashMap<>();
+            for (ServerSetup setup : setups) {
+                String protocol = setup.getProtocol();
+                if (protocol.startsWith(ServerSetup.PROTOCOL_SMTP)) {
+                    services.put(protocol, new SmtpServer(setup, managers) {
+                        @Override
+                        protected ProtocolHandler createProtocolHandler(Socket socket) {
+                            noDelay(socket);
+                            return super.createProtocolHandler(socket);
+                        }
+                    });
+                } else if (protocol.startsWith(ServerSetup.PROTOCOL_IMAP)) {
+                    services.put(protocol, new AbstractServer(setup, managers) {
+                        @Override
+                        protected ProtocolHandler createProtocolHandler(Socket socket) {
+                            noDelay(socket);
+                            return new ImapHandler(managers.getUserManager(), managers.getImapHostManager(), socket);
+                        }
+                    });
+                } else {
+                    throw new IllegalArgumentException("Unsupported protocol: " + protocol);
+                }
+            }
+            return services;
+        }
+
+        // getImap() would cast to GreenMail's own (final) ImapServer
+        int port(String protocol) {
+            return services.get(protocol).getPort();
+        }
+
+        private static void noDelay(Socket socket) {
+            try {
+                socket.setTcpNoDelay(true);
+            } catch (SocketException ignored) {
+                // measured slower, not wrong
+            }
+        }
+    }
+
+    static MimeMessage message(Session session, Random random, int index, String shape, int attachmentKb, Date date)
+            throws MessagingException {
+        MimeMessage message = new MimeMessage(session);
+        message.setFrom(new InternetAddress("Sender " + (index % 97) + " <sender" + (index % 97) + "@example.org>"));
+        message.setRecipient(Message.RecipientType.TO, new InternetAddress(USER));
+        message.setSubject("Benchmark message " + index + " " + words(random, 5), "UTF-8");
+        message.setSentDate(date);
+
+        String text = words(random, 400);
+        switch (shape) {
+            case "plain" -> message.setText(text, "UTF-8");
+            case "html" -> message.setContent(alternative(text));
+            case "attachment" -> {
+                MimeMultipart mixed = new MimeMultipart("mixed");
+                MimeBodyPart body = new MimeBodyPart();
+                body.setContent(alternative(text));
+                mixed.addBodyPart(body);
+
+                MimeBodyPart image = new MimeBodyPart();
+                image.setContent(bytes(random, 8 * 1024), "image/png");
+                image.setFileName("logo.png");
+                image.setContentID("<logo" + index + "@bench>");
+                image.setDisposition(MimeBodyPart.INLINE);
+                mixed.addBodyPart(image);
+
+                MimeBodyPart file = new MimeBodyPart();
+                file.setContent(bytes(random, attachmentKb * 1024), "application/octet-stream");
+                file.setFileName(ATTACHMENT_NAME);
+                file.setDisposition(MimeBodyPart.ATTACHMENT);
+                mixed.addBodyPart(file);
+                message.setContent(mixed);
+            }
+            default -> throw new IllegalArgumentException("Unknown shape: " + shape);
+        }
+        message.saveChanges();
+        return message;
+    }
+
+    private static MimeMultipart alternative(String text) throws MessagingException {
+        MimeMultipart alternative = new MimeMultipart("alternative");
+        MimeBodyPart plain = new MimeBodyPart();
+        plain.setText(text, "UTF-8");
+        alternative.addBodyPart(plain);
+        MimeBodyPart html = new MimeBodyPart();
+        html.setContent("<html><body><h1>Report</h1><p>" + text.replace(". ", ".</p><p>") + "</p></body></html>", "text/html; charset=UTF-8");
+        alternative.addBodyPart(html);
+        return alternative;
+    }
+
+    private static final String[] WORDS = { "invoice", "meeting", "quarterly", "report", "project", "deadline",
+            "review", "budget", "schedule", "customer", "release", "update", "team", "design", "contract" };
+
+    private static String words(Random random, int count) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            text.append(WORDS[random.nextInt(WORDS.length)]).append(i % 12 == 11 ? ". " : " ");
+        }
+        return text.toString().trim();
+    }
+
+    private static byte[] bytes(Random random, int count) {
+        byte[] data = new byte[count];
+        random.nextBytes(data);
+        return data;
+    }
+}
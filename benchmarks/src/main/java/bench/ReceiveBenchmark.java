@@ -0,0 +1,78 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Reading side, end to end over IMAP on loopback: folder list, one page of the
+// inbox table, and opening a message (fetch + MIME walk + HTML), in the client's
+// own code paths. Bodies are dropped from the local cache before every read so
+// each one goes to the server; header pages are measured the way the inbox
+// sees them after the first visit, with envelopes cached and UIDs/flags fetched.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReceiveBenchmark {
+    private static final int PAGE = 100; // as the inbox table asks for them
+
+    @Param("1000")
+    int messages;
+
+    @Param({ "plain", "html", "attachment" })
+    String shape;
+
+    @Param("64")
+    int attachmentKb;
+
+    MailServer server;
+    MailClient client;
+    long[] uids;
+    int nextPage;
+
+    @Setup(Level.Trial)
+    public void start() throws Exception {
+        server = MailServer.start(messages, shape, attachmentKb);
+        client = server.client();
+        uids = client.uids("INBOX", messages);
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        System.out.println(client.report());
+        client.close();
+        server.stop();
+    }
+
+    // A different message for every call, with its body evicted from the local cache
+    @State(Scope.Thread)
+    public static class NextMessage {
+        int next;
+        long uid;
+
+        @Setup(Level.Invocation)
+        public void pick(ReceiveBenchmark bench) {
+            uid = bench.uids[next++ % bench.uids.length];
+            bench.client.forgetBody("INBOX", uid);
+        }
+    }
+
+    @Benchmark
+    public List<String> folderList() {
+        return client.folderList();
+    }
+
+    @Benchmark
+    public int headerPage() throws Exception {
+        int pages = Math.max(1, messages / PAGE);
+        int first = (nextPage++ % pages) * PAGE + 1;
+        return client.headerPage("INBOX", first, first + PAGE - 1);
+    }
+
+    @Benchmark
+    public String readBody(NextMessage message) throws Exception {
+        return client.readBody("INBOX", message.uid);
+    }
+}
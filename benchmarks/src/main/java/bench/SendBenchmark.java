@@ -0,0 +1,61 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Sending over SMTP on loopback: building the MIME message from compose-screen
+// input and handing it to an already connected transport, as the outbox worker does.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SendBenchmark {
+
+    @Param({ "0", "256", "4096" })
+    int attachmentKb;
+
+    MailServer server;
+    MailClient client;
+    String body;
+    List<File> attachments;
+
+    @Setup(Level.Trial)
+    public void start() throws Exception {
+        server = MailServer.start(0, "plain", 0);
+        client = server.client();
+        body = "<html><body><p>" + "Quarterly numbers attached. ".repeat(200) + "</p></body></html>";
+        attachments = null;
+        if (attachmentKb > 0) {
+            Path file = Files.createTempFile("bench-attachment", ".bin");
+            byte[] data = new byte[attachmentKb * 1024];
+            new Random(7).nextBytes(data);
+            Files.write(file, data);
+            file.toFile().deleteOnExit();
+            attachments = List.of(file.toFile());
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void purge() throws Exception {
+        server.purge();
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        System.out.println(client.report());
+        client.close();
+        server.stop();
+    }
+
+    @Benchmark
+    public void send() throws Exception {
+        client.send(MailServer.USER, "Benchmark", body, attachments);
+    }
+}
@@ -0,0 +1,87 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Several mailboxes in one process. Each account keeps its own receiver and
+// sender (and with them its own pool, message cache and outbox connection),
+// but they draw on shared resources:
+//   - one ConnectionBudget caps IMAP connections in use across all accounts,
+//     handing freed ones to the account with the fewest;
+//   - one FairScheduler runs background work for all of them, taking turns
+//     between accounts so a big sync can't crowd out the others.
+// A UnifiedInbox merges a folder of every account into one list by date.
+public class AccountManager {
+    static final int TOTAL_CONNECTIONS = Integer.getInteger("golden.imap.connections.total", 12);
+    static final int IO_THREADS = Integer.getInteger("golden.io.threads", 4);
+
+    public static class Account {
+        public final String email;
+        public final EmailReceiver receiver;
+        public final EmailSender sender;
+
+        Account(String email, EmailReceiver receiver, EmailSender sender) {
+            this.email = email;
+            this.receiver = receiver;
+            this.sender = sender;
+        }
+    }
+
+    private final ConnectionBudget budget = new ConnectionBudget(TOTAL_CONNECTIONS);
+    private final FairScheduler scheduler = new FairScheduler(IO_THREADS);
+    private final Map<String, Account> accounts = new LinkedHashMap<>(); // guarded by this; by lower-case address
+
+    // Logs in (IMAP and SMTP side by side) and adds the account; throws if the login fails
+    public Account add(String email, String password) throws Exception {
+        return add(SessionBootstrap.open(email, password));
+    }
+
+    // An already logged-in session, e.g. from the login screen
+    public Account add(SessionBootstrap.Session session) {
+        String email = session.receiver.getUserEmail();
+        Account account = new Account(email, session.receiver, session.sender);
+        session.receiver.useConnectionBudget(budget);
+        Account previous;
+        synchronized (this) {
+            previous = accounts.put(email.toLowerCase(), account);
+        }
+        if (previous != null) close(previous);
+        return account;
+    }
+
+    public synchronized Account get(String email) {
+        return accounts.get(email.toLowerCase());
+    }
+
+    public synchronized List<Account> getAccounts() {
+        return new ArrayList<>(accounts.values());
+    }
+
+    // Logs the account out: its queued background work is dropped and its connections closed
+    public void remove(String email) {
+        Account removed;
+        synchronized (this) {
+            removed = accounts.remove(email.toLowerCase());
+        }
+        if (removed != null) close(removed);
+    }
+
+    public UnifiedInbox unifiedInbox(String folderName) {
+        return new UnifiedInbox(this, folderName);
+    }
+
+    public FairScheduler getScheduler() { return scheduler; }
+
+    public ConnectionBudget getBudget() { return budget; }
+
+    public void close() {
+        for (Account account : getAccounts()) remove(account.email);
+        scheduler.shutdown();
+    }
+
+    private void close(Account account) {
+        scheduler.cancelAll(account.email);
+        account.receiver.close();
+        account.sender.close();
+    }
+}
@@ -3,6 +3,12 @@ public class AppLauncher {
         // THIS LINE IS CRITICAL FOR GMAIL SPEED
         System.setProperty("java.net.preferIPv4Stack", "true");
 
+        // A command runs headless and never loads JavaFX; no arguments opens the window
+        if (args.length > 0 && MailCli.isCommand(args[0])) {
+            System.setProperty("java.awt.headless", "true");
+            MailCli.main(args);
+            return;
+        }
         EmailGUI.main(args);
     }
-}
\ No newline at end of file
+}
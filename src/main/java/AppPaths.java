@@ -0,0 +1,23 @@
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+// Where the client keeps its local data (cache, outbox, indexes...)
+public class AppPaths {
+
+    public static Path dataDir() {
+        String override = System.getProperty("golden.data.dir");
+        if (override != null && !override.isBlank()) return Paths.get(override);
+        return Paths.get(System.getProperty("user.home"), ".golden-email");
+    }
+
+    public static Path accountDir(String email) {
+        return dataDir().resolve("accounts").resolve(safeName(email.toLowerCase()));
+    }
+
+    // Folder names like "[Gmail]/Sent Mail" are not valid file names everywhere,
+    // so keep the readable part and add a hash to keep distinct names distinct.
+    public static String safeName(String name) {
+        String readable = name.replaceAll("[^A-Za-z0-9._-]", "_");
+        return readable + "-" + Integer.toHexString(name.hashCode());
+    }
+}
@@ -0,0 +1,251 @@
+import jakarta.mail.Multipart;
+import jakarta.mail.Part;
+import jakarta.mail.internet.MimePart;
+import org.eclipse.angus.mail.iap.ByteArray;
+import org.eclipse.angus.mail.imap.IMAPFolder;
+import org.eclipse.angus.mail.imap.IMAPMessage;
+import org.eclipse.angus.mail.imap.protocol.BODY;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Properties;
+import java.util.function.BooleanSupplier;
+
+// Streams one attachment to disk. The encoded section is pulled with IMAP partial
+// fetches (BODY.PEEK[section]<offset.size>), decoded chunk by chunk and written
+// through a FileChannel, so memory use does not grow with the attachment.
+// Progress is kept next to the target ("name.part" + "name.part.state"), which
+// lets an interrupted or cancelled download carry on where it stopped.
+public class AttachmentDownload {
+
+    public interface Progress { void update(long fetched, long total, double bytesPerSecond); }
+
+    private static final int CHUNK_SIZE = 512 * 1024;
+
+    private final IMAPFolder folder;
+    private final IMAPMessage message;
+    private final Part part;
+    private final String section;
+    private final String resumeKey;
+    private final Path target;
+
+    private AttachmentDownload(IMAPFolder folder, IMAPMessage message, Part part, String section, String resumeKey, Path target) {
+        this.folder = folder;
+        this.message = message;
+        this.part = part;
+        this.section = section;
+        this.resumeKey = resumeKey;
+        this.target = target;
+    }
+
+    // Finds the attachment in the message structure (BODYSTRUCTURE, no content is fetched)
+    public static AttachmentDownload locate(IMAPFolder folder, IMAPMessage message, long uid, String filename, Path target) throws Exception {
+        String[] section = new String[1];
+        Part part = findPart(message, "", filename, section);
+        if (part == null) return null;
+        String resumeKey = folder.getFullName() + "/" + folder.getUIDValidity() + "/" + uid + "/" + section[0];
+        return new AttachmentDownload(folder, message, part, section[0], resumeKey, target);
+    }
+
+    // Section numbers follow IMAP's numbering: "2", "1.3"; a single-part message is "1"
+    private static Part findPart(Part part, String prefix, String filename, String[] section) throws Exception {
+        if (part.isMimeType("multipart/*")) {
+            Multipart mp = (Multipart) part.getContent();
+            for (int i = 0; i < mp.getCount(); i++) {
+                String child = prefix.isEmpty() ? String.valueOf(i + 1) : prefix + "." + (i + 1);
+                Part found = findPart(mp.getBodyPart(i), child, filename, section);
+                if (found != null) return found;
+            }
+        } else if (part.getFileName() != null && part.getFileName().equalsIgnoreCase(filename)) {
+            section[0] = prefix.isEmpty() ? "1" : prefix;
+            return part;
+        }
+        return null;
+    }
+
+    // Returns the finished file, or null if cancelled (the partial data is kept for a resume)
+    public Path run(Progress progress, BooleanSupplier cancelled) throws Exception {
+        Path partFile = target.resolveSibling(target.getFileName() + ".part");
+        Path stateFile = target.resolveSibling(target.getFileName() + ".part.state");
+        Files.createDirectories(target.toAbsolutePath().getParent());
+        long total = Math.max(0, part.getSize());
+        ChunkDecoder decoder = decoderFor(part instanceof MimePart ? ((MimePart) part).getEncoding() : null);
+        if (decoder == null) return copyDecodedStream(partFile, total, progress, cancelled);
+
+        Properties state = loadState(stateFile);
+        long offset = 0;
+        long written = 0;
+        if (resumeKey.equals(state.getProperty("key")) && Files.exists(partFile)) {
+            offset = Long.parseLong(state.getProperty("offset", "0"));
+            written = Long.parseLong(state.getProperty("written", "0"));
+            decoder.restore(Base64.getDecoder().decode(state.getProperty("carry", "")));
+        }
+
+        long started = System.nanoTime();
+        long resumedAt = offset;
+        try (FileChannel channel = FileChannel.open(partFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            channel.truncate(written);
+            channel.position(written);
+            while (true) {
+                if (cancelled != null && cancelled.getAsBoolean()) return null;
+                int start = (int) offset;
+                BODY body = (BODY) folder.doCommand(p -> p.peekBody(message.getMessageNumber(), section, start, CHUNK_SIZE));
+                ByteArray chunk = body != null ? body.getByteArray() : null;
+                int count = chunk != null ? chunk.getCount() : 0;
+                boolean last = count < CHUNK_SIZE || (total > 0 && offset + count >= total);
+
+                ByteBuffer decoded = count > 0
+                        ? decoder.decode(chunk.getBytes(), chunk.getStart(), count)
+                        : ByteBuffer.allocate(0);
+                while (decoded.hasRemaining()) channel.write(decoded);
+                offset += count;
+
+                saveState(stateFile, offset, channel.position(), decoder.carry());
+                if (progress != null) {
+                    double seconds = (System.nanoTime() - started) / 1e9;
+                    progress.update(offset, Math.max(total, offset), seconds > 0 ? (offset - resumedAt) / seconds : 0);
+                }
+                if (last) break;
+            }
+            channel.force(false);
+        }
+        Files.move(partFile, target, StandardCopyOption.REPLACE_EXISTING);
+        Files.deleteIfExists(stateFile);
+        return target;
+    }
+
+    // Encodings we cannot decode chunk-wise (uuencode...) go through JavaMail's decoder, without resume
+    private Path copyDecodedStream(Path partFile, long total, Progress progress, BooleanSupplier cancelled) throws Exception {
+        long started = System.nanoTime();
+        long copied = 0;
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = part.getInputStream();
+             OutputStream out = Files.newOutputStream(partFile)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                if (cancelled != null && cancelled.getAsBoolean()) return null;
+                out.write(buffer, 0, read);
+                copied += read;
+                if (progress != null) {
+                    double seconds = (System.nanoTime() - started) / 1e9;
+                    progress.update(copied, Math.max(total, copied), seconds > 0 ? copied / seconds : 0);
+                }
+            }
+        }
+        Files.move(partFile, target, StandardCopyOption.REPLACE_EXISTING);
+        return target;
+    }
+
+    private static Properties loadState(Path stateFile) {
+        Properties state = new Properties();
+        if (Files.exists(stateFile)) {
+            try (InputStream in = Files.newInputStream(stateFile)) { state.load(in); } catch (IOException ignored) {}
+        }
+        return state;
+    }
+
+    private void saveState(Path stateFile, long offset, long written, byte[] carry) throws IOException {
+        Properties state = new Properties();
+        state.setProperty("key", resumeKey);
+        state.setProperty("offset", String.valueOf(offset));
+        state.setProperty("written", String.valueOf(written));
+        state.setProperty("carry", Base64.getEncoder().encodeToString(carry));
+        try (OutputStream out = Files.newOutputStream(stateFile)) { state.store(out, null); }
+    }
+
+    // --- CHUNK DECODERS ---
+    // Each keeps the few bytes that can't be decoded until the next chunk arrives;
+    // those bytes are saved with the resume state.
+    private interface ChunkDecoder {
+        ByteBuffer decode(byte[] bytes, int start, int count);
+        byte[] carry();
+        void restore(byte[] carry);
+    }
+
+    private static ChunkDecoder decoderFor(String encoding) {
+        String e = encoding == null ? "7bit" : encoding.trim().toLowerCase();
+        switch (e) {
+            case "base64": return new Base64Decoder();
+            case "quoted-printable": return new QuotedPrintableDecoder();
+            case "7bit": case "8bit": case "binary": return new PassThrough();
+            default: return null;
+        }
+    }
+
+    private static class PassThrough implements ChunkDecoder {
+        // Wraps the fetched buffer as is, nothing is copied on the way to the channel
+        @Override public ByteBuffer decode(byte[] bytes, int start, int count) { return ByteBuffer.wrap(bytes, start, count); }
+        @Override public byte[] carry() { return new byte[0]; }
+        @Override public void restore(byte[] carry) {}
+    }
+
+    private static class Base64Decoder implements ChunkDecoder {
+        private byte[] pending = new byte[0]; // fewer than 4 characters of an unfinished quantum
+
+        @Override public ByteBuffer decode(byte[] bytes, int start, int count) {
+            byte[] chars = Arrays.copyOf(pending, pending.length + count);
+            int n = pending.length;
+            boolean padded = false;
+            for (int i = start; i < start + count; i++) {
+                byte c = bytes[i];
+                if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '+' || c == '/' || c == '=') {
+                    chars[n++] = c;
+                    if (c == '=') padded = true;
+                }
+            }
+            int usable = n - n % 4;
+            pending = Arrays.copyOfRange(chars, usable, n);
+            if (usable == 0) return ByteBuffer.allocate(0);
+            if (padded) return ByteBuffer.wrap(Base64.getMimeDecoder().decode(Arrays.copyOf(chars, usable)));
+            return Base64.getDecoder().decode(ByteBuffer.wrap(chars, 0, usable));
+        }
+
+        @Override public byte[] carry() { return pending; }
+        @Override public void restore(byte[] carry) { pending = carry; }
+    }
+
+    private static class QuotedPrintableDecoder implements ChunkDecoder {
+        private byte[] pending = new byte[0]; // an escape ("=", "=X", "=\r") cut by the chunk boundary
+
+        @Override public ByteBuffer decode(byte[] bytes, int start, int count) {
+            byte[] in = Arrays.copyOf(pending, pending.length + count);
+            System.arraycopy(bytes, start, in, pending.length, count);
+            ByteBuffer out = ByteBuffer.allocate(in.length);
+            int i = 0;
+            while (i < in.length) {
+                byte c = in[i];
+                if (c != '=') {
+                    out.put(c);
+                    i++;
+                    continue;
+                }
+                if (i + 1 < in.length && in[i + 1] == '\n') { i += 2; continue; } // soft line break
+                if (i + 2 >= in.length) break;                                     // wait for more
+                if (in[i + 1] == '\r' && in[i + 2] == '\n') { i += 3; continue; }
+                int hi = Character.digit(in[i + 1], 16);
+                int lo = Character.digit(in[i + 2], 16);
+                if (hi < 0 || lo < 0) {
+                    out.put(c); // not an escape, keep it literally
+                    i++;
+                } else {
+                    out.put((byte) ((hi << 4) | lo));
+                    i += 3;
+                }
+            }
+            pending = Arrays.copyOfRange(in, i, in.length);
+            out.flip();
+            return out;
+        }
+
+        @Override public byte[] carry() { return pending; }
+        @Override public void restore(byte[] carry) { pending = carry; }
+    }
+}
@@ -0,0 +1,361 @@
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Transport;
+import jakarta.mail.internet.InternetAddress;
+import jakarta.mail.internet.MimeBodyPart;
+import jakarta.mail.internet.MimeMessage;
+import jakarta.mail.internet.MimeMultipart;
+import jakarta.mail.util.SharedByteArrayInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Mail merge: one template, many recipients. The template is parsed once and the
+// attachments are MIME-encoded once; every message reuses those bytes and only
+// the subject and HTML body are rendered per recipient from {{field}} placeholders.
+// Messages go out over several SMTP connections that all draw from one rate limit
+// per host, so a big run stays under the provider's sending limits.
+public class BulkSender {
+    public static final int CONNECTIONS = Integer.getInteger("golden.smtp.connections", 3);
+
+    private static final Pattern PLACEHOLDER = Pattern.compile("\\{\\{\\s*([\\w.-]+)\\s*}}");
+    private static final Map<String, RateLimiter> LIMITERS = new ConcurrentHashMap<>();
+
+    public static class Template {
+        public final String subject;
+        public final String htmlBody;
+        public final List<File> attachments;
+
+        public Template(String subject, String htmlBody, List<File> attachments) {
+            this.subject = subject;
+            this.htmlBody = htmlBody;
+            this.attachments = attachments != null ? attachments : List.of();
+        }
+    }
+
+    public static class Result {
+        public final int index;        // position in the recipient stream
+        public final String recipient;
+        public final boolean sent;
+        public final String error;
+
+        Result(int index, String recipient, boolean sent, String error) {
+            this.index = index;
+            this.recipient = recipient;
+            this.sent = sent;
+            this.error = error;
+        }
+    }
+
+    public static class Report {
+        public final List<Result> results;
+        public final int sent;
+        public final int failed;
+        public final double seconds;
+
+        Report(List<Result> results, double seconds) {
+            this.results = results;
+            this.sent = (int) results.stream().filter(r -> r.sent).count();
+            this.failed = results.size() - sent;
+            this.seconds = seconds;
+        }
+
+        public double getMessagesPerSecond() { return seconds > 0 ? sent / seconds : 0; }
+
+        @Override public String toString() {
+            return String.format("%d sent, %d failed in %.1f s (%.1f msg/s)", sent, failed, seconds, getMessagesPerSecond());
+        }
+    }
+
+    public interface Listener { void onResult(Result result); }
+
+    private final EmailSender sender;
+    private final int connections;
+    private final RateLimiter limiter;
+
+    public BulkSender(EmailSender sender) {
+        this(sender, CONNECTIONS);
+    }
+
+    public BulkSender(EmailSender sender, int connections) {
+        this.sender = sender;
+        this.connections = Math.max(1, connections);
+        this.limiter = LIMITERS.computeIfAbsent(sender.getHost(), RateLimiter::forHost);
+    }
+
+    // Each recipient is a map of fields; "email" is the address, the rest fill placeholders.
+    // The stream is read lazily, so a large CSV is never held in memory.
+    public Report send(Template template, Iterator<Map<String, String>> recipients, Listener listener) throws Exception {
+        Merge subject = new Merge(template.subject, false);
+        Merge body = new Merge(template.htmlBody, true);
+        List<byte[]> attachments = new ArrayList<>();
+        for (File file : template.attachments) attachments.add(encodeOnce(file));
+
+        AtomicInteger nextIndex = new AtomicInteger();
+        List<Result> results = new ArrayList<>();
+        long started = System.nanoTime();
+
+        ExecutorService workers = Executors.newFixedThreadPool(connections, r -> {
+            Thread t = new Thread(r, "bulk-send");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<Future<?>> running = new ArrayList<>();
+            for (int i = 0; i < connections; i++) {
+                running.add(workers.submit(() -> {
+                    Transport transport = null;
+                    try {
+                        while (true) {
+                            Map<String, String> fields;
+                            int index;
+                            synchronized (recipients) {
+                                if (!recipients.hasNext()) return null;
+                                fields = recipients.next();
+                                index = nextIndex.getAndIncrement();
+                            }
+                            String to = fields.getOrDefault("email", "").trim();
+                            Result result;
+                            try {
+                                MimeMessage message = buildMessage(to, subject.render(fields), body.render(fields), attachments);
+                                limiter.acquire();
+                                transport = deliver(transport, message);
+                                result = new Result(index, to, true, null);
+                            } catch (InterruptedException e) {
+                                throw e;
+                            } catch (Exception e) {
+                                result = new Result(index, to, false, e.getMessage());
+                                // deliver() closed it if the connection was lost; the next message opens a new one
+                                if (transport != null && !transport.isConnected()) transport = null;
+                            }
+                            synchronized (results) { results.add(result); }
+                            if (listener != null) listener.onResult(result);
+                        }
+                    } finally {
+                        if (transport != null) try { transport.close(); } catch (MessagingException ignored) {}
+                    }
+                }));
+            }
+            for (Future<?> f : running) f.get();
+        } finally {
+            workers.shutdownNow();
+        }
+
+        results.sort(Comparator.comparingInt(r -> r.index));
+        return new Report(results, (System.nanoTime() - started) / 1e9);
+    }
+
+    // One reconnect per message: a connection the server dropped mid-run is replaced,
+    // a message the server refuses is reported as failed. Whatever connection is lost
+    // on the way is closed here, so a failure never leaves one open.
+    private Transport deliver(Transport transport, MimeMessage message) throws MessagingException {
+        if (transport == null) transport = sender.openTransport();
+        try (Metrics.Sample sample = Metrics.start("smtp.send.bulk")) {
+            try {
+                transport.sendMessage(message, message.getAllRecipients());
+            } catch (MessagingException e) {
+                if (transport.isConnected()) throw e;
+                closeQuietly(transport);
+                transport = sender.openTransport();
+                try {
+                    transport.sendMessage(message, message.getAllRecipients());
+                } catch (MessagingException retryFailed) {
+                    closeQuietly(transport);
+                    throw retryFailed;
+                }
+            }
+            sample.ok();
+            return transport;
+        }
+    }
+
+    private static void closeQuietly(Transport transport) {
+        try { transport.close(); } catch (MessagingException ignored) {}
+    }
+
+    private MimeMessage buildMessage(String to, String subject, String html, List<byte[]> attachments) throws MessagingException {
+        MimeMessage message = new MimeMessage(sender.getSession());
+        message.setFrom(new InternetAddress(sender.getUserEmail()));
+        message.setRecipients(Message.RecipientType.TO, InternetAddress.parse(to, true));
+        message.setSubject(subject, "UTF-8");
+
+        MimeMultipart multipart = new MimeMultipart();
+        MimeBodyPart textPart = new MimeBodyPart();
+        textPart.setContent(html, "text/html; charset=utf-8");
+        multipart.addBodyPart(textPart);
+        // Parsed from a shared stream: the encoded bytes are copied to the wire as they are
+        for (byte[] encoded : attachments) multipart.addBodyPart(new MimeBodyPart(new SharedByteArrayInputStream(encoded)));
+        message.setContent(multipart);
+        return message;
+    }
+
+    // updateHeaders() is what fills in Content-Type (from the file name) and the
+    // disposition's filename; a message does it on save, a lone part has to be told
+    private static class AttachmentPart extends MimeBodyPart {
+        void finish() throws MessagingException { updateHeaders(); }
+    }
+
+    static byte[] encodeOnce(File file) throws IOException, MessagingException {
+        AttachmentPart part = new AttachmentPart();
+        part.attachFile(file);
+        part.finish();
+        part.setHeader("Content-Transfer-Encoding", "base64");
+        ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.min(Integer.MAX_VALUE - 8, file.length() * 4 / 3 + 1024));
+        part.writeTo(out);
+        return out.toByteArray();
+    }
+
+    // --- RECIPIENT STREAMS ---
+
+    // Header row names the fields; one of them must be "email". Quoted fields may hold commas and line breaks.
+    public static Iterator<Map<String, String>> readCsv(Path csv) throws IOException {
+        BufferedReader reader = Files.newBufferedReader(csv, StandardCharsets.UTF_8);
+        List<String> header = readRecord(reader);
+        if (header == null || header.stream().noneMatch(h -> h.trim().equalsIgnoreCase("email"))) {
+            reader.close();
+            throw new IOException("CSV needs a header row with an 'email' column: " + csv);
+        }
+        String[] names = header.stream().map(h -> h.trim().toLowerCase()).toArray(String[]::new);
+
+        return new Iterator<>() {
+            private List<String> next = advance();
+
+            private List<String> advance() {
+                try {
+                    List<String> record;
+                    do { record = readRecord(reader); } while (record != null && record.size() == 1 && record.get(0).isBlank());
+                    if (record == null) reader.close();
+                    return record;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            @Override public boolean hasNext() { return next != null; }
+
+            @Override public Map<String, String> next() {
+                if (next == null) throw new NoSuchElementException();
+                Map<String, String> fields = new LinkedHashMap<>();
+                for (int i = 0; i < names.length; i++) fields.put(names[i], i < next.size() ? next.get(i) : "");
+                next = advance();
+                return fields;
+            }
+        };
+    }
+
+    private static List<String> readRecord(BufferedReader reader) throws IOException {
+        String line = reader.readLine();
+        if (line == null) return null;
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        while (true) {
+            for (int i = 0; i < line.length(); i++) {
+                char c = line.charAt(i);
+                if (quoted) {
+                    if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') { field.append('"'); i++; }
+                    else if (c == '"') quoted = false;
+                    else field.append(c);
+                } else if (c == '"') {
+                    quoted = true;
+                } else if (c == ',') {
+                    fields.add(field.toString());
+                    field.setLength(0);
+                } else {
+                    field.append(c);
+                }
+            }
+            if (!quoted) break;
+            line = reader.readLine();
+            if (line == null) break;
+            field.append('\n');
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    // --- TEMPLATE ---
+
+    // Split into literal text and field names once, so each message is a single pass over the pieces
+    private static class Merge {
+        private final List<String> literals = new ArrayList<>();
+        private final List<String> fields = new ArrayList<>();
+        private final boolean html;
+
+        Merge(String template, boolean html) {
+            this.html = html;
+            Matcher m = PLACEHOLDER.matcher(template != null ? template : "");
+            int last = 0;
+            while (m.find()) {
+                literals.add(template.substring(last, m.start()));
+                fields.add(m.group(1).toLowerCase());
+                last = m.end();
+            }
+            literals.add(template != null ? template.substring(last) : "");
+        }
+
+        String render(Map<String, String> values) {
+            StringBuilder out = new StringBuilder(literals.get(0));
+            for (int i = 0; i < fields.size(); i++) {
+                String value = values.getOrDefault(fields.get(i), "");
+                out.append(html ? escape(value) : value).append(literals.get(i + 1));
+            }
+            return out.toString();
+        }
+
+        private static String escape(String text) {
+            return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+        }
+    }
+
+    // --- RATE LIMIT ---
+
+    // Token bucket shared by every connection to the same host. Rate in messages per second,
+    // from golden.smtp.rate.<host>, else golden.smtp.rate (default 5); bursts up to one second's worth.
+    private static class RateLimiter {
+        private final double perSecond;
+        private double tokens;
+        private long lastRefill = System.nanoTime();
+
+        private RateLimiter(double perSecond) {
+            this.perSecond = perSecond;
+            this.tokens = perSecond;
+        }
+
+        static RateLimiter forHost(String host) {
+            String rate = System.getProperty("golden.smtp.rate." + host, System.getProperty("golden.smtp.rate", "5"));
+            return new RateLimiter(Math.max(0.01, Double.parseDouble(rate)));
+        }
+
+        void acquire() throws InterruptedException {
+            long waitNanos;
+            synchronized (this) {
+                long now = System.nanoTime();
+                tokens = Math.min(perSecond, tokens + (now - lastRefill) / 1e9 * perSecond);
+                lastRefill = now;
+                tokens -= 1;  // reserve now, so waiting threads queue up behind each other
+                waitNanos = tokens >= 0 ? 0 : (long) (-tokens / perSecond * 1e9);
+            }
+            if (waitNanos > 0) Thread.sleep(waitNanos / 1_000_000, (int) (waitNanos % 1_000_000));
+        }
+    }
+}
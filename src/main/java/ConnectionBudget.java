@@ -0,0 +1,60 @@
+import jakarta.mail.MessagingException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// How many IMAP connections all accounts together may have in use at once.
+// Each account's pool still has its own limit; this caps the sum, so a dozen
+// accounts don't open a dozen times as many sockets.
+//
+// Freed connections go to the waiting account that has the fewest in use, not
+// to whoever asked first, so an account in the middle of a big sync can't
+// queue up every slot ahead of one that only wants to open a message.
+public class ConnectionBudget {
+    private final int limit;
+    private final Map<String, Integer> inUse = new HashMap<>();   // guarded by this
+    private final Map<String, Integer> waiting = new HashMap<>(); // guarded by this
+    private int used;                                             // guarded by this
+
+    public ConnectionBudget(int limit) {
+        this.limit = Math.max(1, limit);
+    }
+
+    public int getLimit() { return limit; }
+
+    public synchronized int getInUse() { return used; }
+
+    public synchronized int getInUse(String account) { return inUse.getOrDefault(account, 0); }
+
+    public synchronized void acquire(String account, long timeout, TimeUnit unit) throws InterruptedException, MessagingException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        waiting.merge(account, 1, Integer::sum);
+        try {
+            while (used >= limit || !isNextInLine(account)) {
+                long left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (left <= 0) throw new MessagingException("Timed out waiting for a free IMAP connection (all accounts busy)");
+                wait(left);
+            }
+        } finally {
+            if (waiting.merge(account, -1, Integer::sum) == 0) waiting.remove(account);
+            notifyAll(); // who is next in line may have changed
+        }
+        used++;
+        inUse.merge(account, 1, Integer::sum);
+    }
+
+    public synchronized void release(String account) {
+        if (inUse.merge(account, -1, Integer::sum) <= 0) inUse.remove(account);
+        used--;
+        notifyAll();
+    }
+
+    // No other waiting account has fewer connections than this one
+    private boolean isNextInLine(String account) {
+        int mine = inUse.getOrDefault(account, 0);
+        for (String other : waiting.keySet()) {
+            if (inUse.getOrDefault(other, 0) < mine) return false;
+        }
+        return true;
+    }
+}
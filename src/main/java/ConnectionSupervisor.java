@@ -0,0 +1,102 @@
+import jakarta.mail.AuthenticationFailedException;
+import jakarta.mail.FolderClosedException;
+import jakarta.mail.StoreClosedException;
+import org.eclipse.angus.mail.iap.ConnectionException;
+import java.io.EOFException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Keeps IMAP connections honest. Store.isConnected() only proves the socket was
+// alive at the last NOOP; a NAT mapping that expired since then leaves a socket
+// that looks open and swallows the next command until TCP gives up, minutes later.
+//   timeouts   every connect, read and write has a deadline, so a stall becomes an
+//              error after READ_TIMEOUT_MILLIS (counted as imap.stall)
+//   keepalive  pooled connections idle for KEEPALIVE_MILLIS get a NOOP on the store
+//              and on each folder they keep SELECTed (every one has its own socket),
+//              which keeps the mappings alive and closes the dead ones before anyone
+//              borrows them
+//   backoff    failed connects and retries wait a jittered, doubling pause, so a
+//              flapping network isn't met with a burst of logins
+//   retry      a read that dies with its connection is run again on a fresh one
+//              (see EmailReceiver.withConnection); sends are never retried here
+public class ConnectionSupervisor {
+    static final int CONNECT_TIMEOUT_MILLIS = Integer.getInteger("golden.imap.connect.timeout", 15_000);
+    static final int READ_TIMEOUT_MILLIS = Integer.getInteger("golden.imap.read.timeout", 30_000);
+    // IDLE waits for the server by design; the watcher re-issues it every 9 minutes
+    static final int IDLE_READ_TIMEOUT_MILLIS = 10 * 60 * 1000;
+    static final long KEEPALIVE_MILLIS = Long.getLong("golden.imap.keepalive", 4 * 60 * 1000);
+    static final int CONNECT_ATTEMPTS = 3; // per borrow that needs a new connection
+    static final int CALL_ATTEMPTS = 2;    // the call itself, i.e. one transparent retry
+    private static final long FIRST_BACKOFF_MILLIS = 1000;
+    private static final long MAX_BACKOFF_MILLIS = 60 * 1000;
+
+    private static final ScheduledExecutorService KEEPALIVE = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "imap-keepalive");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // Connect/read/write deadlines for "imap" or "imaps"; Angus has none by default
+    static void applyTimeouts(Properties props, String protocol, int readTimeoutMillis) {
+        props.put("mail." + protocol + ".connectiontimeout", String.valueOf(CONNECT_TIMEOUT_MILLIS));
+        props.put("mail." + protocol + ".timeout", String.valueOf(readTimeoutMillis));
+        props.put("mail." + protocol + ".writetimeout", String.valueOf(readTimeoutMillis));
+    }
+
+    // NOOPs the pool's long-idle connections until the pool shuts down
+    static ScheduledFuture<?> watch(ImapConnectionPool pool) {
+        long period = Math.max(1000, KEEPALIVE_MILLIS / 2);
+        return KEEPALIVE.scheduleWithFixedDelay(() -> {
+            try {
+                pool.keepAlive(KEEPALIVE_MILLIS);
+            } catch (RuntimeException e) {
+                e.printStackTrace(); // keep the schedule alive for the next round
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    // True when the error says the connection is gone (closed, reset, timed out,
+    // BYE), not that the request was wrong; only those are worth another attempt
+    static boolean isConnectionFailure(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause() == t ? null : t.getCause()) {
+            if (t instanceof AuthenticationFailedException) return false;
+            if (t instanceof StoreClosedException || t instanceof FolderClosedException
+                    || t instanceof ConnectionException || t instanceof SocketException
+                    || t instanceof SocketTimeoutException || t instanceof EOFException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // A read that hit its timeout. Angus turns it into a synthetic "* BYE" whose
+    // text is the only place the SocketTimeoutException is still named.
+    static boolean isStall(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause() == t ? null : t.getCause()) {
+            if (t instanceof SocketTimeoutException) return true;
+            String message = t.getMessage();
+            if (message != null && message.contains(SocketTimeoutException.class.getName())) return true;
+        }
+        return false;
+    }
+
+    // Doubling from FIRST_BACKOFF_MILLIS up to MAX_BACKOFF_MILLIS, then a random
+    // point in the upper half of that, so clients that failed together spread out
+    static long backoffMillis(int attempt) {
+        long ceiling = Math.min(MAX_BACKOFF_MILLIS, FIRST_BACKOFF_MILLIS << Math.min(Math.max(attempt - 1, 0), 16));
+        return ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+    }
+
+    // Records why the attempt failed and waits out its backoff
+    static void pause(int attempt, String counter, Throwable cause) throws InterruptedException {
+        Metrics.count(counter);
+        if (isStall(cause)) Metrics.count("imap.stall");
+        Thread.sleep(backoffMillis(attempt));
+    }
+}
@@ -1,6 +1,15 @@
+import javafx.animation.Animation;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
 import javafx.application.Application;
 import javafx.application.Platform;
+import javafx.beans.property.BooleanProperty;
+import javafx.beans.property.SimpleBooleanProperty;
+import javafx.beans.property.SimpleStringProperty;
+import javafx.beans.property.StringProperty;
+import javafx.collections.FXCollections;
 import javafx.concurrent.Task;
+import javafx.concurrent.Worker;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.Parent;
@@ -14,10 +23,16 @@ import javafx.scene.web.HTMLEditor;
 import javafx.scene.web.WebView;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
+import javafx.util.Duration;
 import java.io.*;
+import java.nio.file.Path;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
 import java.util.Objects;
+import java.util.function.Function;
 
 public class EmailGUI extends Application {
 
@@ -29,13 +44,36 @@ public class EmailGUI extends Application {
     // --- ENGINES ---
     private EmailSender appSender;
     private EmailReceiver appReceiver;
+    private MailboxWatcher inboxWatcher;
+
+    // --- SCREENS KEPT FOR THE SESSION ---
+    private Parent inboxScreen;
+    private Runnable inboxRefresh;
+    private Parent composeScreen;
+    private final RenderedContentCache renderedContent = new RenderedContentCache();
+    private Prefetcher prefetcher;
+    private Outbox outbox;
+
+    // Delivery state of the outbox, shown on the dashboard and compose screens
+    private final StringProperty outboxStatus = new SimpleStringProperty("");
+    private final BooleanProperty outboxHasFailures = new SimpleBooleanProperty(false);
+    private String sessionState = ""; // how IMAP and SMTP came up at login, shown while the outbox has no news
+
+    // --- BACKGROUND WORK ---
+    private final TaskScheduler tasks = new TaskScheduler(8);
+    private final AccountManager accounts = new AccountManager(); // one account at a time on screen, for now
+    private final ThumbnailCache thumbnails = new ThumbnailCache(AppPaths.dataDir().resolve("thumbnails"), tasks);
 
     private static final String CONFIG_FILE = "config.properties";
+    private static final int SEARCH_PAGE = 50; // headers fetched per "Load more"
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("dd MMM yyyy HH:mm");
     private Scene mainScene;
 
     @Override
     public void start(Stage stage) {
         loadConfig();
+        InlinePartHandler.install(); // lets the reading pane load inline images on demand
+        Metrics.startExport(AppPaths.dataDir().resolve("metrics.txt"), Long.getLong("golden.metrics.export.seconds", 60));
 
         StackPane root = new StackPane();
         mainScene = new Scene(root, 800, 600);
@@ -69,19 +107,24 @@ public class EmailGUI extends Application {
     }
 
     private Button createThemeButton() {
-        String icon = currentTheme.equals("light") ? "🌙" : "☀️";
-        Button btn = new Button(icon);
-        btn.setStyle("-fx-background-color: transparent; -fx-font-size: 24px; -fx-cursor: hand; -fx-text-fill: " + (currentTheme.equals("light") ? "#333" : "#ffd700") + ";");
+        Button btn = new Button();
+        styleThemeButton(btn);
         btn.setOnAction(e -> {
             currentTheme = currentTheme.equals("light") ? "dark" : "light";
-            btn.setText(currentTheme.equals("light") ? "🌙" : "☀️");
-            btn.setStyle("-fx-background-color: transparent; -fx-font-size: 24px; -fx-cursor: hand; -fx-text-fill: " + (currentTheme.equals("light") ? "#333" : "#ffd700") + ";");
+            styleThemeButton(btn);
             applyTheme();
             saveConfig();
         });
+        // Kept screens come back after the theme may have been switched elsewhere
+        btn.sceneProperty().addListener((obs, oldScene, scene) -> { if (scene != null) styleThemeButton(btn); });
         return btn;
     }
 
+    private static void styleThemeButton(Button btn) {
+        btn.setText(currentTheme.equals("light") ? "🌙" : "☀️");
+        btn.setStyle("-fx-background-color: transparent; -fx-font-size: 24px; -fx-cursor: hand; -fx-text-fill: " + (currentTheme.equals("light") ? "#333" : "#ffd700") + ";");
+    }
+
     private ImageView createLogo() {
         ImageView iconView = new ImageView();
         try {
@@ -191,16 +234,16 @@ public class EmailGUI extends Application {
             emailField.setDisable(true);
             passField.setDisable(true);
 
-            // 2. Validate in Background Task
-            Task<Boolean> loginTask = new Task<>() {
-                @Override protected Boolean call() throws Exception {
-                    // Try to connect to server
-                    EmailReceiver tempReceiver = new EmailReceiver(inputEmail, inputPass);
-                    return tempReceiver.validateLogin();
+            // 2. Validate in Background Task; IMAP and SMTP log in side by side
+            // and the connections are kept for the session
+            Task<SessionBootstrap.Session> loginTask = new Task<>() {
+                @Override protected SessionBootstrap.Session call() throws Exception {
+                    return SessionBootstrap.open(inputEmail, inputPass);
                 }
             };
 
             loginTask.setOnSucceeded(ev -> {
+                SessionBootstrap.Session session = loginTask.getValue();
                 // Login Success!
                 userEmail = inputEmail;
                 userPassword = inputPass;
@@ -214,8 +257,13 @@ public class EmailGUI extends Application {
                 }
 
                 // Initialize global engines
-                appSender = new EmailSender(userEmail, userPassword);
-                appReceiver = new EmailReceiver(userEmail, userPassword);
+                appSender = session.sender;
+                appReceiver = session.receiver;
+                accounts.add(session);
+                prefetcher = new Prefetcher(appReceiver);
+                sessionState = (session.isSendReady() ? "🟢 Ready: " : "🟡 Reading ready, sending will connect when needed: ") + session;
+                outboxStatus.set(sessionState);
+                startOutbox(); // delivers anything left over from the last session
 
                 showDashboard(stage);
             });
@@ -230,7 +278,7 @@ public class EmailGUI extends Application {
                 showAlert("Login Failed", "Invalid credentials.\nPlease check your email and App Password.");
             });
 
-            new Thread(loginTask).start();
+            tasks.submit("login", loginTask);
         });
 
         Label version = new Label("v1.0.0");
@@ -245,6 +293,9 @@ public class EmailGUI extends Application {
 
     // --- SCREEN 2: DASHBOARD ---
     private void showDashboard(Stage stage) {
+        stopWatching();
+        tasks.cancelAll("inbox.");
+        if (prefetcher != null) prefetcher.cancel();
         StackPane root = new StackPane();
         HBox topBar = new HBox(createThemeButton());
         topBar.setAlignment(Pos.TOP_RIGHT);
@@ -279,20 +330,51 @@ public class EmailGUI extends Application {
         logoutButton.getStyleClass().add("red-button");
         logoutButton.setPrefWidth(420);
         logoutButton.setOnAction(e -> {
+            String oldEmail = userEmail;
             userEmail = null;
             userPassword = null;
+            stopOutbox();
             appSender = null;
+            prefetcher.close();
+            prefetcher = null;
+            inboxScreen = null;
+            inboxRefresh = null;
+            composeScreen = null;
+            selectedFiles = null;
+            renderedContent.clear();
             appReceiver = null;
+            tasks.execute(() -> accounts.remove(oldEmail)); // closes its IMAP and SMTP connections
             showLoginScreen(stage);
         });
 
-        card.getChildren().addAll(logo, welcome, buttonBox, logoutButton);
+        Label outboxLabel = new Label();
+        outboxLabel.textProperty().bind(outboxStatus);
+        outboxLabel.setWrapText(true);
+        outboxLabel.setMaxWidth(420);
+        Hyperlink retryLink = new Hyperlink("Retry failed messages");
+        retryLink.visibleProperty().bind(outboxHasFailures);
+        retryLink.managedProperty().bind(outboxHasFailures);
+        retryLink.setOnAction(e -> {
+            Outbox current = outbox;
+            if (current != null) tasks.execute(current::retryFailed);
+        });
+
+        Hyperlink diagnosticsLink = new Hyperlink("📊 Diagnostics");
+        diagnosticsLink.setOnAction(e -> showDiagnostics(stage));
+
+        card.getChildren().addAll(logo, welcome, buttonBox, logoutButton, outboxLabel, retryLink, diagnosticsLink);
         root.getChildren().addAll(card, topBar);
         switchScreen(root);
     }
 
     // --- SCREEN 3: COMPOSE ---
+    // Kept between visits like the inbox, so the editor and an unfinished draft survive
     private void showComposeScreen(Stage stage) {
+        if (composeScreen == null) composeScreen = buildComposeScreen(stage);
+        switchScreen(composeScreen);
+    }
+
+    private Parent buildComposeScreen(Stage stage) {
         BorderPane root = new BorderPane();
         root.setPadding(new Insets(20));
 
@@ -346,10 +428,10 @@ public class EmailGUI extends Application {
             if (selectedFiles != null) {
                 fileLabel.setText("Selected: " + selectedFiles.size() + " files");
                 for (File file : selectedFiles) {
-                    String name = file.getName().toLowerCase();
-                    if (name.endsWith(".jpg") || name.endsWith(".png") || name.endsWith(".jpeg")) {
-                        ImageView thumb = new ImageView(new Image(file.toURI().toString()));
+                    if (ThumbnailCache.isImage(file.getName())) {
+                        ImageView thumb = new ImageView();
                         thumb.setFitHeight(50); thumb.setFitWidth(50); thumb.setPreserveRatio(true);
+                        thumbnails.show(file, 100, thumb); // decoded off the FX thread, at 2x for HiDPI
                         previewBox.getChildren().add(thumb);
                     }
                 }
@@ -367,9 +449,14 @@ public class EmailGUI extends Application {
             sendingSpinner.setVisible(true);
             sendButton.setDisable(true);
 
+            List<File> files = selectedFiles;
+            Outbox queue = outbox;
+
+            // Only writes the message to the outbox on disk; the outbox worker delivers it
             Task<Void> task = new Task<>() {
                 @Override protected Void call() throws Exception {
-                    appSender.sendEmail(to, sub, msg, selectedFiles);
+                    if (queue != null) queue.enqueue(appSender.buildMessage(to, sub, msg, files));
+                    else appSender.sendEmail(to, sub, msg, files); // no outbox this session, send directly
                     return null;
                 }
             };
@@ -377,7 +464,6 @@ public class EmailGUI extends Application {
             task.setOnSucceeded(ev -> {
                 sendingSpinner.setVisible(false);
                 sendButton.setDisable(false);
-                showAlert("Success", "Email sent successfully!");
                 toField.clear(); subjectField.clear(); messageEditor.setHtmlText("");
                 selectedFiles = null; fileLabel.setText("No files selected");
                 previewBox.getChildren().clear();
@@ -386,19 +472,29 @@ public class EmailGUI extends Application {
             task.setOnFailed(ev -> {
                 sendingSpinner.setVisible(false);
                 sendButton.setDisable(false);
-                showAlert("Error", "Failed to send email.\n" + task.getException().getMessage());
+                showAlert("Error", "Could not queue the email.\n" + task.getException().getMessage());
             });
 
-            new Thread(task).start();
+            tasks.submit("compose.send", task);
         });
 
-        form.getChildren().addAll(toField, subjectField, messageEditor, attachButton, fileLabel, previewBox, sendButton);
+        Label outboxLabel = new Label();
+        outboxLabel.textProperty().bind(outboxStatus);
+
+        form.getChildren().addAll(toField, subjectField, messageEditor, attachButton, fileLabel, previewBox, sendButton, outboxLabel);
         root.setCenter(form);
-        switchScreen(root);
+        return root;
     }
 
     // --- SCREEN 4: INBOX ---
+    // Built once per login and kept, WebView and all; each visit only refreshes the list
     private void showInboxScreen(Stage stage) {
+        if (inboxScreen == null) inboxScreen = buildInboxScreen(stage);
+        switchScreen(inboxScreen);
+        Platform.runLater(inboxRefresh);
+    }
+
+    private Parent buildInboxScreen(Stage stage) {
         BorderPane root = new BorderPane();
         root.setPadding(new Insets(20));
 
@@ -435,19 +531,37 @@ public class EmailGUI extends Application {
         folderBox.setPromptText("Select Folder");
         folderBox.setPrefWidth(200);
         Button loadFoldersBtn = new Button("📂 Load Folders");
-        controls.getChildren().addAll(loadFoldersBtn, folderBox);
+        TextField searchField = new TextField();
+        searchField.setPromptText("🔍 Search this folder");
+        searchField.setPrefWidth(260);
+        controls.getChildren().addAll(loadFoldersBtn, folderBox, searchField);
 
         Label emailsLabel = new Label("Emails:");
         emailsLabel.getStyleClass().add("gold-label");
 
-        ComboBox<String> emailBox = new ComboBox<>();
-        emailBox.setPromptText("Select Email to Read");
-        emailBox.setPrefWidth(600);
+        TableView<EmailReceiver.EmailHeader> emailTable = createMessageTable();
+
+        // Server search results: every matching UID, of which the first 'requested' are listed
+        EmailReceiver.SearchResult[] serverHits = new EmailReceiver.SearchResult[1];
+        int[] requested = new int[1];
+        Button loadMoreBtn = new Button("⬇ Load more results");
+        loadMoreBtn.setVisible(false);
+        loadMoreBtn.managedProperty().bind(loadMoreBtn.visibleProperty());
 
         WebView emailWebView = new WebView();
         emailWebView.setPrefHeight(400);
         emailWebView.setMaxWidth(800);
         emailWebView.setPageFill(Color.TRANSPARENT);
+        emailWebView.getEngine().setJavaScriptEnabled(false); // mail is only ever displayed
+        long[] renderStarted = new long[1];
+        emailWebView.getEngine().getLoadWorker().stateProperty().addListener((obs, oldState, state) -> {
+            if (state == Worker.State.RUNNING) {
+                renderStarted[0] = System.nanoTime();
+            } else if (renderStarted[0] != 0 && (state == Worker.State.SUCCEEDED || state == Worker.State.FAILED)) {
+                Metrics.record("webview.render", System.nanoTime() - renderStarted[0], 0, state == Worker.State.SUCCEEDED);
+                renderStarted[0] = 0;
+            }
+        });
 
         StackPane emailPaper = new StackPane(emailWebView);
         emailPaper.getStyleClass().add("email-paper");
@@ -458,7 +572,7 @@ public class EmailGUI extends Application {
         Label attachLabel = new Label("Attachments:");
         attachLabel.getStyleClass().add("gold-label");
 
-        content.getChildren().addAll(controls, emailsLabel, emailBox, emailPaper, attachmentLayout);
+        content.getChildren().addAll(controls, emailsLabel, emailTable, loadMoreBtn, emailPaper, attachmentLayout);
 
         ScrollPane scrollPane = new ScrollPane(content);
         scrollPane.setFitToWidth(true);
@@ -468,127 +582,451 @@ public class EmailGUI extends Application {
         loadFoldersBtn.setOnAction(e -> {
             spinner.setVisible(true);
             Task<List<String>> task = new Task<>() {
-                @Override protected List<String> call() throws Exception { return appReceiver.getFolderList(); }
+                @Override protected List<String> call() throws Exception {
+                    updateValue(appReceiver.getCachedFolderList()); // paint what we have on disk right away
+                    return appReceiver.getFolderList();
+                }
             };
+            task.valueProperty().addListener((obs, oldList, folders) -> {
+                if (folders != null && !folders.equals(folderBox.getItems())) folderBox.getItems().setAll(folders);
+            });
             task.setOnSucceeded(ev -> {
                 spinner.setVisible(false);
-                folderBox.getItems().setAll(task.getValue());
-                if (!task.getValue().isEmpty()) folderBox.getSelectionModel().select("INBOX");
+                if (!task.getValue().isEmpty() && folderBox.getValue() == null) folderBox.getSelectionModel().select("INBOX");
             });
             task.setOnFailed(ev -> { spinner.setVisible(false); showAlert("Error", "Failed to load folders."); });
-            new Thread(task).start();
+            tasks.submit("inbox.folders", task);
         });
 
         folderBox.setOnAction(e -> {
             String folder = folderBox.getValue();
             if (folder != null) {
                 spinner.setVisible(true);
-                Task<List<String>> task = new Task<>() {
-                    @Override protected List<String> call() throws Exception { return appReceiver.getEmailSubjects(folder); }
+                searchField.clear();
+                emailsLabel.setText("Emails:");
+                serverHits[0] = null;
+                loadMoreBtn.setVisible(false);
+                prefetcher.cancel();
+                // The cached top of the folder first, then the whole folder as a paged list
+                // whose rows are fetched as they are scrolled into view
+                Task<List<EmailReceiver.EmailHeader>> task = new Task<>() {
+                    @Override protected List<EmailReceiver.EmailHeader> call() throws Exception {
+                        updateValue(appReceiver.getCachedHeaders(folder, 0, PagedMessageList.PAGE_SIZE));
+                        int count = appReceiver.getMessageCount(folder);
+                        PagedMessageList rows = new PagedMessageList(count,
+                                (first, last) -> appReceiver.getHeadersBySequence(folder, first, last), tasks);
+                        rows.preload(appReceiver.getHeadersBySequence(folder, count - PagedMessageList.PAGE_SIZE + 1, count));
+                        return rows;
+                    }
                 };
+                task.valueProperty().addListener((obs, oldList, headers) -> {
+                    if (headers != null) showRows(emailTable, headers);
+                });
                 task.setOnSucceeded(ev -> {
                     spinner.setVisible(false);
-                    emailBox.getItems().setAll(task.getValue());
+                    watchFolder(folder, emailTable);
                 });
-                new Thread(task).start();
+                task.setOnFailed(ev -> spinner.setVisible(false));
+                tasks.cancelAll("inbox.body");
+                tasks.submit("inbox.headers", task);
             }
         });
 
-        emailBox.setOnAction(e -> {
-            int index = emailBox.getSelectionModel().getSelectedIndex();
+        // Plain words are answered from the local index right away; the server's answer then
+        // replaces them. Operators (from:, is:unread, larger:...) go to the server only.
+        // An empty query goes back to the latest messages.
+        searchField.setOnAction(e -> {
             String folder = folderBox.getValue();
-            if (index >= 0 && folder != null) {
+            String query = searchField.getText().trim();
+            if (folder == null) return;
+            if (query.isEmpty()) {
+                folderBox.getOnAction().handle(null);
+                return;
+            }
+            MailSearch criteria = MailSearch.parse(query);
+            serverHits[0] = null;
+            loadMoreBtn.setVisible(false);
+            spinner.setVisible(true);
+            emailsLabel.setText("Searching...");
+
+            EmailReceiver.SearchResult[] found = new EmailReceiver.SearchResult[1];
+            Task<List<EmailReceiver.EmailHeader>> task = new Task<>() {
+                @Override protected List<EmailReceiver.EmailHeader> call() throws Exception {
+                    if (criteria.isTextOnly()) updateValue(appReceiver.searchLocal(folder, criteria.getText(), SEARCH_PAGE));
+                    found[0] = appReceiver.searchServer(folder, criteria);
+                    return appReceiver.getHeadersByUid(found[0], 0, SEARCH_PAGE);
+                }
+            };
+            task.valueProperty().addListener((obs, oldList, headers) -> {
+                if (headers != null) showRows(emailTable, headers);
+            });
+            task.setOnSucceeded(ev -> {
+                spinner.setVisible(false);
+                serverHits[0] = found[0];
+                requested[0] = Math.min(SEARCH_PAGE, found[0].size());
+                emailsLabel.setText("Results: " + found[0].size());
+                loadMoreBtn.setVisible(requested[0] < found[0].size());
+                emailTable.scrollTo(0);
+            });
+            task.setOnFailed(ev -> {
+                spinner.setVisible(false);
+                emailsLabel.setText(emailTable.getItems().isEmpty() ? "Search failed." : "Results (local only, server search failed):");
+            });
+            tasks.submit("inbox.search", task);
+        });
+
+        loadMoreBtn.setOnAction(e -> {
+            EmailReceiver.SearchResult hits = serverHits[0];
+            if (hits == null) return;
+            int offset = requested[0];
+            spinner.setVisible(true);
+            loadMoreBtn.setDisable(true);
+            Task<List<EmailReceiver.EmailHeader>> task = new Task<>() {
+                @Override protected List<EmailReceiver.EmailHeader> call() throws Exception {
+                    return appReceiver.getHeadersByUid(hits, offset, SEARCH_PAGE);
+                }
+            };
+            task.setOnSucceeded(ev -> {
+                spinner.setVisible(false);
+                loadMoreBtn.setDisable(false);
+                if (serverHits[0] != hits) return; // a newer search took over
+                emailTable.getItems().addAll(task.getValue());
+                requested[0] = Math.min(hits.size(), offset + SEARCH_PAGE);
+                loadMoreBtn.setVisible(requested[0] < hits.size());
+            });
+            task.setOnFailed(ev -> {
+                spinner.setVisible(false);
+                loadMoreBtn.setDisable(false);
+                // The UIDs no longer name the same messages: start over with a fresh search
+                if (task.getException() instanceof EmailReceiver.StaleSearchException && serverHits[0] == hits) {
+                    searchField.getOnAction().handle(null);
+                }
+            });
+            tasks.submit("inbox.search.more", task);
+        });
+
+        emailTable.getSelectionModel().selectedItemProperty().addListener((row, previous, selected) -> {
+            String folder = folderBox.getValue();
+            if (selected != null && folder != null) {
+                long uid = selected.uid;
+                Prefetcher ahead = prefetcher;
+                ahead.prefetch(folder, neighbours(emailTable.getItems(), emailTable.getSelectionModel().getSelectedIndex()));
+
+                // Read recently: no fetch and no restyling, and no reload if the pane still shows it
+                RenderedContentCache.Entry recent = renderedContent.get(folder, uid);
+                Metrics.count(recent != null ? "cache.rendered.hit" : "cache.rendered.miss");
+                if (recent != null) {
+                    tasks.cancelAll("inbox.body");
+                    spinner.setVisible(false);
+                    showMessage(emailWebView, attachmentLayout, attachLabel, folder, uid, recent);
+                    return;
+                }
+
                 spinner.setVisible(true);
+                emailWebView.setUserData(null);
                 emailWebView.getEngine().loadContent("<body style='color: black;'><h3>Loading content...</h3></body>");
 
                 Task<EmailReceiver.EmailContent> task = new Task<>() {
                     @Override protected EmailReceiver.EmailContent call() throws Exception {
-                        return appReceiver.readSpecificEmail(folder, index);
+                        EmailReceiver.EmailContent prefetched = ahead.get(folder, uid);
+                        Metrics.count(prefetched != null ? "prefetch.hit" : "prefetch.miss");
+                        return prefetched != null ? prefetched : appReceiver.readEmailByUid(folder, uid);
                     }
                 };
-
                 task.setOnSucceeded(ev -> {
                     spinner.setVisible(false);
-                    EmailReceiver.EmailContent data = task.getValue();
-                    String styledContent = "<body style='color: black; background-color: transparent; font-family: Segoe UI;'>"
-                            + data.htmlBody + "</body>";
-                    emailWebView.getEngine().loadContent(styledContent);
-
+                    showMessage(emailWebView, attachmentLayout, attachLabel, folder, uid, renderedContent.put(folder, uid, task.getValue()));
+                });
+                task.setOnFailed(ev -> {
+                    spinner.setVisible(false);
                     attachmentLayout.getChildren().clear();
-                    if (!data.attachmentNames.isEmpty()) {
-                        attachmentLayout.getChildren().add(attachLabel);
-                        for (String filename : data.attachmentNames) {
-                            VBox fileContainer = new VBox(5);
-                            fileContainer.setAlignment(Pos.CENTER);
-                            fileContainer.getStyleClass().add("file-container");
-                            fileContainer.setMaxWidth(400);
-
-                            HBox buttonRow = new HBox(10);
-                            buttonRow.setAlignment(Pos.CENTER);
-
-                            Button fileBtn = new Button("⬇ Download " + filename);
-                            fileBtn.getStyleClass().add("file-button");
-                            ProgressIndicator fileSpinner = new ProgressIndicator();
-                            fileSpinner.setMaxSize(20, 20);
-                            fileSpinner.setVisible(false);
-
-                            buttonRow.getChildren().addAll(fileBtn, fileSpinner);
-                            StackPane previewArea = new StackPane();
-                            previewArea.setPadding(new Insets(10));
-                            Label statusLabel = new Label("");
-                            statusLabel.setStyle("-fx-text-fill: #888;");
-                            previewArea.getChildren().add(statusLabel);
-
-                            fileContainer.getChildren().addAll(buttonRow, previewArea);
-                            attachmentLayout.getChildren().add(fileContainer);
-
-                            fileBtn.setOnAction(event -> {
-                                fileSpinner.setVisible(true);
-                                fileBtn.setDisable(true);
-                                statusLabel.setText("Downloading preview...");
-
-                                Task<File> downloadTask = new Task<>() {
-                                    @Override protected File call() throws Exception {
-                                        String result = appReceiver.downloadAttachment(folder, index, filename);
-                                        if (result.startsWith("Error")) throw new Exception(result);
-                                        String path = System.getProperty("user.home") + File.separator + "Downloads" + File.separator + filename;
-                                        return new File(path);
-                                    }
-                                };
-
-                                downloadTask.setOnSucceeded(de -> {
-                                    fileSpinner.setVisible(false);
-                                    fileBtn.setDisable(false);
-                                    fileBtn.setText("✅ Saved: " + filename);
-                                    statusLabel.setText("");
-                                    File downloadedFile = downloadTask.getValue();
-                                    String lowerName = filename.toLowerCase();
-                                    if (lowerName.endsWith(".jpg") || lowerName.endsWith(".png") || lowerName.endsWith(".jpeg")) {
-                                        try {
-                                            ImageView preview = new ImageView(new Image(downloadedFile.toURI().toString()));
-                                            preview.setFitWidth(350);
-                                            preview.setPreserveRatio(true);
-                                            previewArea.getChildren().setAll(preview);
-                                        } catch (Exception ex) {}
-                                    } else { statusLabel.setText("File saved."); }
-                                });
-                                downloadTask.setOnFailed(de -> {
-                                    fileSpinner.setVisible(false);
-                                    fileBtn.setDisable(false);
-                                    statusLabel.setText("❌ Error");
-                                    showAlert("Error", "Download failed.");
-                                });
-                                new Thread(downloadTask).start();
-                            });
+                    emailWebView.getEngine().loadContent("<body style='color: black;'><h3>Could not load this message.</h3></body>");
+                    showAlert("Error", "Failed to load message.\n" + task.getException().getMessage());
+                });
+                tasks.submit("inbox.body", task);
+            }
+        });
+
+        inboxRefresh = () -> {
+            loadFoldersBtn.fire();
+            // The watcher was stopped while away, so list the folder again; search results stay
+            if (folderBox.getValue() != null && searchField.getText().isBlank()) folderBox.getOnAction().handle(null);
+        };
+        return root;
+    }
+
+    // Puts a message in the reading pane, with a download button per attachment
+    private void showMessage(WebView emailWebView, VBox attachmentLayout, Label attachLabel, String folder, long uid,
+                             RenderedContentCache.Entry rendered) {
+        if (rendered.key.equals(emailWebView.getUserData())) return; // already showing
+        emailWebView.setUserData(rendered.key);
+        emailWebView.getEngine().loadContent(rendered.html);
+        EmailReceiver.EmailContent data = rendered.content;
+
+        attachmentLayout.getChildren().clear();
+        if (!data.attachmentNames.isEmpty()) {
+            attachmentLayout.getChildren().add(attachLabel);
+            for (int a = 0; a < data.attachmentNames.size(); a++) {
+                String filename = data.attachmentNames.get(a);
+                long size = a < data.attachmentSizes.size() ? data.attachmentSizes.get(a) : -1;
+                VBox fileContainer = new VBox(5);
+                fileContainer.setAlignment(Pos.CENTER);
+                fileContainer.getStyleClass().add("file-container");
+                fileContainer.setMaxWidth(400);
+
+                HBox buttonRow = new HBox(10);
+                buttonRow.setAlignment(Pos.CENTER);
+
+                Button fileBtn = new Button("⬇ Download " + filename + (size >= 0 ? " (" + formatBytes(size) + ")" : ""));
+                fileBtn.getStyleClass().add("file-button");
+                ProgressIndicator fileSpinner = new ProgressIndicator();
+                fileSpinner.setMaxSize(20, 20);
+                fileSpinner.setVisible(false);
+
+                Button cancelBtn = new Button("✖");
+                cancelBtn.getStyleClass().add("file-button");
+                cancelBtn.setVisible(false);
+
+                buttonRow.getChildren().addAll(fileBtn, fileSpinner, cancelBtn);
+                StackPane previewArea = new StackPane();
+                previewArea.setPadding(new Insets(10));
+                Label statusLabel = new Label("");
+                statusLabel.setStyle("-fx-text-fill: #888;");
+                previewArea.getChildren().add(statusLabel);
+
+                fileContainer.getChildren().addAll(buttonRow, previewArea);
+                attachmentLayout.getChildren().add(fileContainer);
+
+                fileBtn.setOnAction(event -> {
+                    fileSpinner.setVisible(true);
+                    fileBtn.setDisable(true);
+                    statusLabel.setText("Downloading preview...");
+
+                    Task<File> downloadTask = new Task<>() {
+                        @Override protected File call() throws Exception {
+                            Path saved = appReceiver.downloadAttachmentByUid(folder, uid, filename, (done, total, rate) -> {
+                                updateProgress(done, total);
+                                updateMessage(formatBytes(done) + " / " + formatBytes(total) + "  •  " + formatBytes((long) rate) + "/s");
+                            }, this::isCancelled);
+                            return saved != null ? saved.toFile() : null;
                         }
-                    }
+                    };
+                    fileSpinner.progressProperty().bind(downloadTask.progressProperty());
+                    downloadTask.messageProperty().addListener((obs, oldText, text) -> statusLabel.setText(text));
+                    cancelBtn.setOnAction(ce -> downloadTask.cancel());
+                    cancelBtn.setVisible(true);
+
+                    downloadTask.setOnSucceeded(de -> {
+                        fileSpinner.setVisible(false);
+                        cancelBtn.setVisible(false);
+                        fileBtn.setDisable(false);
+                        fileBtn.setText("✅ Saved: " + filename);
+                        statusLabel.setText("");
+                        File downloadedFile = downloadTask.getValue();
+                        if (downloadedFile != null && ThumbnailCache.isImage(filename)) {
+                            ImageView preview = new ImageView();
+                            preview.setFitWidth(350);
+                            preview.setPreserveRatio(true);
+                            thumbnails.show(downloadedFile, 350, preview);
+                            previewArea.getChildren().setAll(preview);
+                        } else { statusLabel.setText("File saved."); }
+                    });
+                    downloadTask.setOnFailed(de -> {
+                        fileSpinner.setVisible(false);
+                        cancelBtn.setVisible(false);
+                        fileBtn.setDisable(false);
+                        fileBtn.setText("⬇ Resume " + filename);
+                        statusLabel.setText("❌ Error");
+                        showAlert("Error", "Download failed.\n" + downloadTask.getException().getMessage());
+                    });
+                    downloadTask.setOnCancelled(de -> {
+                        fileSpinner.setVisible(false);
+                        cancelBtn.setVisible(false);
+                        fileBtn.setDisable(false);
+                        fileBtn.setText("⬇ Resume " + filename);
+                        statusLabel.setText("Paused, click to resume.");
+                    });
+                    tasks.submit(downloadTask);
                 });
-                new Thread(task).start();
+            }
+        }
+    }
+
+    // --- MESSAGE TABLE ---
+    // Virtualized: only the rows on screen have cells, and they are reused while scrolling.
+    // Rows of a PagedMessageList that are still loading arrive as null.
+    private TableView<EmailReceiver.EmailHeader> createMessageTable() {
+        TableView<EmailReceiver.EmailHeader> table = new TableView<>();
+        table.setPlaceholder(new Label("Select a folder"));
+        table.setPrefHeight(320);
+        table.setMaxWidth(900);
+        table.setFixedCellSize(26); // no per-row height measuring while scrolling
+        table.getSelectionModel().setSelectionMode(SelectionMode.SINGLE);
+
+        TableColumn<EmailReceiver.EmailHeader, String> unread = messageColumn("", 30, h -> h.seen ? "" : "●");
+        TableColumn<EmailReceiver.EmailHeader, String> from = messageColumn("From", 200, h -> h.from);
+        TableColumn<EmailReceiver.EmailHeader, String> subject = messageColumn("Subject", 400, h -> h.subject);
+        TableColumn<EmailReceiver.EmailHeader, String> date = messageColumn("Date", 140,
+                h -> h.date != null ? DATE_FORMAT.format(h.date.toInstant().atZone(ZoneId.systemDefault())) : "");
+        TableColumn<EmailReceiver.EmailHeader, String> size = messageColumn("Size", 80, h -> formatBytes(h.size));
+        subject.setCellValueFactory(c -> new SimpleStringProperty(c.getValue() == null ? "Loading..."
+                : Objects.requireNonNullElse(c.getValue().subject, "(no subject)")));
+        table.getColumns().setAll(List.of(unread, from, subject, date, size));
+
+        table.setRowFactory(t -> new TableRow<>() {
+            @Override protected void updateItem(EmailReceiver.EmailHeader item, boolean empty) {
+                super.updateItem(item, empty);
+                setStyle(item != null && !item.seen ? "-fx-font-weight: bold;" : "");
             }
         });
+        return table;
+    }
 
-        switchScreen(root);
-        Platform.runLater(() -> loadFoldersBtn.fire());
+    // Sorting would need every row; the list is newest first already
+    private static TableColumn<EmailReceiver.EmailHeader, String> messageColumn(String title, double width,
+            Function<EmailReceiver.EmailHeader, String> text) {
+        TableColumn<EmailReceiver.EmailHeader, String> column = new TableColumn<>(title);
+        column.setPrefWidth(width);
+        column.setSortable(false);
+        column.setCellValueFactory(c -> new SimpleStringProperty(c.getValue() == null ? "" : Objects.requireNonNullElse(text.apply(c.getValue()), "")));
+        return column;
+    }
+
+    // UIDs of the rows next to 'index', nearest first, alternating below and above;
+    // rows that are not loaded yet are skipped
+    private static List<Long> neighbours(List<EmailReceiver.EmailHeader> rows, int index) {
+        List<Long> uids = new ArrayList<>();
+        for (int distance = 1; distance <= Prefetcher.NEIGHBOURS && index >= 0; distance++) {
+            for (int i : new int[] { index + distance, index - distance }) {
+                if (i < 0 || i >= rows.size()) continue;
+                EmailReceiver.EmailHeader row = rows.get(i);
+                if (row != null) uids.add(row.uid);
+            }
+        }
+        return uids;
+    }
+
+    private static void showRows(TableView<EmailReceiver.EmailHeader> table, List<EmailReceiver.EmailHeader> headers) {
+        table.getSelectionModel().clearSelection();
+        table.setItems(headers instanceof PagedMessageList ? (PagedMessageList) headers : FXCollections.observableArrayList(headers));
+    }
+
+    // --- LIVE UPDATES ---
+    // The list is patched from push events instead of being reloaded
+    private void watchFolder(String folder, TableView<EmailReceiver.EmailHeader> emailTable) {
+        stopWatching();
+        inboxWatcher = appReceiver.watchFolder(folder, event -> Platform.runLater(() -> applyMailboxEvent(emailTable, event)));
+    }
+
+    private void stopWatching() {
+        if (inboxWatcher != null) {
+            MailboxWatcher watcher = inboxWatcher;
+            inboxWatcher = null;
+            tasks.execute(watcher::stop);
+        }
+    }
+
+    private void applyMailboxEvent(TableView<EmailReceiver.EmailHeader> emailTable, MailboxWatcher.Event event) {
+        List<EmailReceiver.EmailHeader> items = emailTable.getItems();
+        if (items instanceof PagedMessageList) {
+            PagedMessageList rows = (PagedMessageList) items;
+            switch (event.type) {
+                case ADDED -> rows.messageAdded(event.header);
+                case EXPUNGED -> rows.messageExpunged(event.uid);
+                case FLAGS_CHANGED -> rows.flagsChanged(event.uid, event.header.seen);
+            }
+            return;
+        }
+        // A plain list is a set of search results: new mail is left out, whether it matches
+        // the query or not is unknown here; clearing the search shows it in the folder
+        switch (event.type) {
+            case ADDED -> {}
+            case EXPUNGED -> items.removeIf(h -> h.uid == event.uid);
+            case FLAGS_CHANGED -> {
+                for (EmailReceiver.EmailHeader h : items) if (h.uid == event.uid) h.seen = event.header.seen;
+                emailTable.refresh();
+            }
+        }
+    }
+
+    // --- DIAGNOSTICS ---
+    // The metrics report plus the task pool's own numbers, refreshed every second while open
+    private void showDiagnostics(Stage owner) {
+        TextArea report = new TextArea();
+        report.setEditable(false);
+        report.setStyle("-fx-font-family: monospace; -fx-font-size: 12px;");
+        Runnable refresh = () -> report.setText(Metrics.report() + String.format(
+                "%nui.tasks               running=%d queued=%d completed=%d mean=%.1fms max=%.1fms%n",
+                tasks.getRunningCount(), tasks.getQueueDepth(), tasks.getCompletedCount(),
+                tasks.getAverageLatencyMillis(), tasks.getMaxLatencyMillis()));
+        refresh.run();
+        Timeline timer = new Timeline(new KeyFrame(Duration.seconds(1), e -> refresh.run()));
+        timer.setCycleCount(Animation.INDEFINITE);
+        timer.play();
+
+        Stage window = new Stage();
+        window.initOwner(owner);
+        window.setTitle("Diagnostics");
+        window.setScene(new Scene(new StackPane(report), 900, 420));
+        window.setOnHidden(e -> timer.stop());
+        window.show();
+    }
+
+    // --- OUTBOX ---
+    private void startOutbox() {
+        try {
+            outbox = new Outbox(appSender, (entry, delivered) -> Platform.runLater(() -> showOutboxState(entry, delivered)));
+            outbox.start();
+            showOutboxState(null, false);
+        } catch (IOException e) {
+            outbox = null;
+            showAlert("Outbox", "Could not open the outbox, mail can't be queued.\n" + e.getMessage());
+        }
+    }
+
+    private void stopOutbox() {
+        if (outbox != null) outbox.stop(); // queued mail stays on disk for the next login
+        outbox = null;
+        sessionState = "";
+        outboxStatus.set("");
+        outboxHasFailures.set(false);
+    }
+
+    private void showOutboxState(Outbox.Entry changed, boolean delivered) {
+        if (outbox == null) return;
+        int queued = 0, retrying = 0, failed = 0;
+        Outbox.Entry sending = null;
+        String lastError = null;
+        for (Outbox.Entry e : outbox.getEntries()) {
+            switch (e.getState()) {
+                case SENDING: sending = e; break;
+                case FAILED: failed++; lastError = e.getLastError(); break;
+                default:
+                    if (e.getAttempts() > 0) retrying++;
+                    else queued++;
+            }
+        }
+
+        StringBuilder text = new StringBuilder();
+        if (delivered) text.append("✔ Sent \"").append(changed.subject).append("\"  ");
+        if (sending != null && sending.getTotalBytes() > 0) {
+            long percent = Math.min(100, sending.getBytesSent() * 100 / sending.getTotalBytes());
+            text.append("📤 Sending ").append(percent).append("% of ").append(formatBytes(sending.getTotalBytes())).append("  ");
+        } else if (sending != null) {
+            text.append("📤 Sending...  ");
+        }
+        if (queued > 0) text.append("⏳ ").append(queued).append(" queued  ");
+        if (retrying > 0) text.append("🔁 ").append(retrying).append(" waiting to retry  ");
+        if (failed > 0) text.append("❌ ").append(failed).append(" failed: ").append(lastError);
+        String status = text.toString().trim();
+        outboxStatus.set(status.isEmpty() ? sessionState : status);
+        outboxHasFailures.set(failed > 0);
+    }
+
+    private static String formatBytes(long bytes) {
+        if (bytes < 1024) return bytes + " B";
+        if (bytes < 1024 * 1024) return String.format("%.1f KB", bytes / 1024.0);
+        return String.format("%.1f MB", bytes / (1024.0 * 1024.0));
     }
 
     private void showAlert(String title, String message) {
@@ -1,143 +1,583 @@
 import jakarta.mail.*;
-import jakarta.mail.internet.MimeMultipart;
-import jakarta.mail.internet.MimeBodyPart;
-import java.io.File;
+import jakarta.mail.search.SearchException;
+import jakarta.mail.search.SearchTerm;
+import org.eclipse.angus.mail.iap.Argument;
+import org.eclipse.angus.mail.iap.ProtocolException;
+import org.eclipse.angus.mail.iap.Response;
+import org.eclipse.angus.mail.imap.IMAPFolder;
+import org.eclipse.angus.mail.imap.IMAPMessage;
+import org.eclipse.angus.mail.imap.protocol.IMAPResponse;
+import org.eclipse.angus.mail.imap.protocol.SearchSequence;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
 import java.util.List;
 import java.util.Properties;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
 
 public class EmailReceiver {
     private String userEmail;
     private String userPassword;
-    private Store store;
+    private final String host;
+    private final int port;
+    private final boolean ssl;
+    private final MessageCache cache;
+    private final ImapConnectionPool pool;
+
+    private static final int POOL_SIZE = Integer.getInteger("golden.imap.pool.size", 4);
+    private static final long FOLDER_IDLE_MILLIS = 5 * 60 * 1000;
+    private static final long POLL_MILLIS = 15 * 1000; // NOOP interval for servers without IDLE
+    private static final boolean COMPRESS = Boolean.getBoolean("golden.imap.compress");
 
     public EmailReceiver(String email, String password) {
+        this(email, password, defaultHost(email), 993, true);
+    }
+
+    // Explicit server, e.g. a local IMAP stand-in for benchmarks; ssl false means plain "imap"
+    public EmailReceiver(String email, String password, String host, int port, boolean ssl) {
         this.userEmail = email;
         this.userPassword = password;
+        this.host = host;
+        this.port = port;
+        this.ssl = ssl;
+        this.cache = MessageCache.forAccount(email);
+        this.pool = new ImapConnectionPool(() -> connect(ConnectionSupervisor.READ_TIMEOUT_MILLIS), POOL_SIZE, FOLDER_IDLE_MILLIS);
+        InlinePartHandler.register(email, this);
     }
 
     // --- NEW: VALIDATION METHOD ---
-    // Returns true if login works, throws Exception if it fails
+    // Returns true if login works, throws Exception if it fails.
+    // The connection it opens stays in the pool for the calls that follow.
     public boolean validateLogin() throws Exception {
-        getStore();
-        return store.isConnected();
+        return withConnection(connection -> connection.store.isConnected());
     }
     // ------------------------------
 
-    private Store getStore() throws Exception {
-        if (store == null || !store.isConnected()) {
-            Properties props = new Properties();
-            props.put("mail.store.protocol", "imaps");
+    // Opens one more authenticated IMAP connection; the pool decides when.
+    // Reads that get no answer within readTimeoutMillis fail instead of hanging.
+    private Store connect(int readTimeoutMillis) throws Exception {
+        String protocol = ssl ? "imaps" : "imap";
+        Properties props = new Properties();
+        props.put("mail.store.protocol", protocol);
+        props.put("mail." + protocol + ".host", host);
+        props.put("mail." + protocol + ".port", String.valueOf(port));
+        ConnectionSupervisor.applyTimeouts(props, protocol, readTimeoutMillis);
+        // Opt-in: on slow or metered links, inflate the whole session when the server offers COMPRESS=DEFLATE
+        if (COMPRESS) props.put("mail." + protocol + ".compress.enable", "true");
+        WireCounter.install(props, protocol);
 
-            String domain = userEmail.toLowerCase();
-            String host = "imap.gmail.com";
+        Session session = Session.getInstance(props, null);
+        Store store = session.getStore(protocol);
+        try (Metrics.Sample sample = Metrics.start("imap.connect")) {
+            store.connect(host, port, userEmail, userPassword); // This validates the password
+            sample.ok();
+        }
+        return store;
+    }
 
-            if (domain.contains("yahoo")) host = "imap.mail.yahoo.com";
-            else if (domain.contains("outlook") || domain.contains("hotmail")) host = "outlook.office365.com";
+    private static String defaultHost(String email) {
+        String domain = email.toLowerCase();
+        if (domain.contains("yahoo")) return "imap.mail.yahoo.com";
+        if (domain.contains("outlook") || domain.contains("hotmail")) return "outlook.office365.com";
+        return "imap.gmail.com";
+    }
 
-            props.put("mail.imaps.host", host);
-            props.put("mail.imaps.port", "993");
+    private interface ConnectionCall<T> { T run(ImapConnectionPool.Connection connection) throws Exception; }
+    private interface FolderCall<T> { T run(Folder folder) throws Exception; }
 
-            Session session = Session.getInstance(props, null);
-            store = session.getStore("imaps");
-            store.connect(host, userEmail, userPassword); // This validates the password
+    // Runs with a pooled connection to itself; a failure makes the pool re-check it.
+    // Everything here only reads (folders are opened READ_ONLY), so when the connection
+    // dies under a call, the call is run once more on a fresh one after a short pause.
+    private <T> T withConnection(ConnectionCall<T> call) throws Exception {
+        for (int attempt = 1; ; attempt++) {
+            ImapConnectionPool.Connection connection = pool.borrow();
+            boolean returned = false;
+            try {
+                T result = call.run(connection);
+                returned = true;
+                pool.giveBack(connection, false);
+                return result;
+            } catch (Exception e) {
+                boolean dead = ConnectionSupervisor.isConnectionFailure(e);
+                returned = true;
+                if (dead) pool.discard(connection);
+                else pool.giveBack(connection, true);
+                if (!dead || attempt >= ConnectionSupervisor.CALL_ATTEMPTS) throw e;
+                ConnectionSupervisor.pause(attempt, "imap.retry", e);
+            } finally {
+                if (!returned) pool.giveBack(connection, true);
+            }
         }
-        return store;
+    }
+
+    // Same, with the folder already SELECTed on that connection
+    private <T> T withFolder(String folderName, FolderCall<T> call) throws Exception {
+        return withConnection(connection -> {
+            Folder folder = connection.folders.acquire(connection.store, folderName);
+            boolean failed = true;
+            try {
+                T result = call.run(folder);
+                failed = false;
+                return result;
+            } finally {
+                connection.folders.release(folderName);
+                if (failed) connection.folders.invalidate(folderName);
+            }
+        });
+    }
+
+    // Closes every pooled connection and the folders they keep open
+    public void close() {
+        InlinePartHandler.unregister(userEmail, this);
+        pool.shutdown();
+        cache.flush();
     }
 
     // ... (Keep all your existing methods below: getFolderList, readSpecificEmail, etc.) ...
 
-    public static class EmailContent { String htmlBody; List<String> attachmentNames = new ArrayList<>(); }
+    public static class EmailContent {
+        String htmlBody;
+        List<String> attachmentNames = new ArrayList<>();
+        List<Long> attachmentSizes = new ArrayList<>(); // same order as the names, -1 if unknown
+    }
+
+    // Bytes of a single MIME part, e.g. an inline image
+    public static class PartData { byte[] bytes; String contentType; }
+
+    // One row of a folder listing, filled from a single batched FETCH
+    public static class EmailHeader {
+        long uid;
+        int messageNumber;
+        String subject;
+        String from;
+        Date date;
+        long size;
+        boolean seen;
+
+        @Override public String toString() { return subject + " (From: " + from + ")"; }
+    }
 
     public List<String> getFolderList() {
         List<String> folderNames = new ArrayList<>();
         try {
-            Store currentStore = getStore();
-            Folder[] folders = currentStore.getDefaultFolder().list("*");
+            Folder[] folders = withConnection(connection -> connection.store.getDefaultFolder().list("*"));
             for (Folder folder : folders) {
                 if ((folder.getType() & Folder.HOLDS_MESSAGES) != 0) folderNames.add(folder.getFullName());
             }
+            if (!folderNames.isEmpty()) cache.saveFolderList(folderNames);
         } catch (Exception e) { e.printStackTrace(); }
         return folderNames;
     }
 
+    // --- LOCAL CACHE (no network) ---
+    // Lets the screens paint the last known state while the server is being asked
+    public List<String> getCachedFolderList() {
+        return cache.loadFolderList();
+    }
+
+    public List<EmailHeader> getCachedHeaders(String folderName, int offset, int count) {
+        return cache.folder(folderName).getHeaders(offset, count);
+    }
+
+    // Full-text search over what is cached locally; no network, newest first
+    public List<EmailHeader> searchLocal(String folderName, String query, int limit) {
+        MessageCache.FolderData local = cache.folder(folderName);
+        List<EmailHeader> headers = new ArrayList<>();
+        for (long uid : local.search().search(query, limit)) {
+            EmailHeader header = local.getHeader(uid);
+            if (header != null) headers.add(header);
+        }
+        return headers;
+    }
+
+    public List<String> getCachedSubjects(String folderName) {
+        List<String> subjects = new ArrayList<>();
+        for (EmailHeader header : getCachedHeaders(folderName, 0, 10)) subjects.add(header.toString());
+        return subjects;
+    }
+
     public List<String> getEmailSubjects(String folderName) {
         List<String> subjects = new ArrayList<>();
+        for (EmailHeader header : getEmailHeaders(folderName, 0, 10)) subjects.add(header.toString());
+        return subjects;
+    }
+
+    public int getMessageCount(String folderName) {
         try {
-            Store currentStore = getStore();
-            Folder folder = currentStore.getFolder(folderName);
-            folder.open(Folder.READ_ONLY);
-            Message[] messages = folder.getMessages();
-            int start = Math.max(0, messages.length - 10);
-            for (int i = messages.length - 1; i >= start; i--) {
-                subjects.add(messages[i].getSubject() + " (From: " + messages[i].getFrom()[0] + ")");
-            }
-            folder.close(false);
+            // STATUS, no SELECT needed
+            return withConnection(connection -> connection.store.getFolder(folderName).getMessageCount());
         } catch (Exception e) { e.printStackTrace(); }
-        return subjects;
+        return 0;
     }
 
-    public EmailContent readSpecificEmail(String folderName, int indexFromTop) {
-        EmailContent content = new EmailContent();
+    // --- PAGED HEADER LISTING ---
+    // offset counts from the newest message, so page 0 is what the inbox shows first.
+    // The whole page is pulled with one FETCH instead of a round trip per message,
+    // and envelopes already in the local cache are not fetched again.
+    public List<EmailHeader> getEmailHeaders(String folderName, int offset, int count) {
         try {
-            Store currentStore = getStore();
-            Folder folder = currentStore.getFolder(folderName);
-            folder.open(Folder.READ_ONLY);
-            Message[] messages = folder.getMessages();
-            int actualIndex = messages.length - 1 - indexFromTop;
-            if (actualIndex >= 0 && actualIndex < messages.length) {
-                Message msg = messages[actualIndex];
-                content.htmlBody = getTextAndExtractFilenames(msg, content.attachmentNames);
-                String header = "<h3>Subject: " + msg.getSubject() + "</h3>" +
-                        "<p><b>From:</b> " + msg.getFrom()[0] + "</p><hr>";
-                content.htmlBody = header + content.htmlBody;
+            return withFolder(folderName, folder -> {
+                MessageCache.FolderData local = cache.folder(folderName);
+                local.validate(((UIDFolder) folder).getUIDValidity());
+                int end = folder.getMessageCount() - offset;
+                int start = Math.max(1, end - count + 1);
+                if (count <= 0 || end < 1) return new ArrayList<EmailHeader>();
+                return fetchHeaders(folder, folder.getMessages(start, end), local);
+            });
+        } catch (Exception e) { e.printStackTrace(); }
+        return new ArrayList<>();
+    }
+
+    // Messages first..last by sequence number (1 is the oldest), newest first.
+    // For the inbox table, which asks for whichever page the user scrolled to.
+    public List<EmailHeader> getHeadersBySequence(String folderName, int first, int last) throws Exception {
+        return withFolder(folderName, folder -> {
+            MessageCache.FolderData local = cache.folder(folderName);
+            local.validate(((UIDFolder) folder).getUIDValidity());
+            int end = Math.min(last, folder.getMessageCount());
+            if (first > end) return new ArrayList<EmailHeader>();
+            return fetchHeaders(folder, folder.getMessages(Math.max(1, first), end), local);
+        });
+    }
+
+    private static FetchProfile headerProfile() {
+        FetchProfile profile = new FetchProfile();
+        profile.add(FetchProfile.Item.ENVELOPE);
+        profile.add(FetchProfile.Item.FLAGS);
+        profile.add(FetchProfile.Item.SIZE);
+        profile.add(UIDFolder.FetchProfileItem.UID);
+        return profile;
+    }
+
+    private static FetchProfile uidAndFlagsProfile() {
+        FetchProfile profile = new FetchProfile();
+        profile.add(FetchProfile.Item.FLAGS);
+        profile.add(UIDFolder.FetchProfileItem.UID);
+        return profile;
+    }
+
+    // Returns newest first. UIDs and flags are always refreshed (they are tiny);
+    // envelopes are only fetched for messages the cache has not seen yet.
+    static List<EmailHeader> fetchHeaders(Folder folder, Message[] messages, MessageCache.FolderData local) throws MessagingException {
+        UIDFolder uidFolder = (UIDFolder) folder;
+        List<Message> missing = new ArrayList<>();
+        try (Metrics.Sample sample = Metrics.start("imap.fetch.headers")) {
+            folder.fetch(messages, uidAndFlagsProfile());
+            for (Message msg : messages) {
+                if (local.getHeader(uidFolder.getUID(msg)) == null) missing.add(msg);
+            }
+            if (!missing.isEmpty()) folder.fetch(missing.toArray(new Message[0]), headerProfile());
+            sample.ok();
+        }
+        Metrics.count("cache.header.hit", messages.length - missing.size());
+        Metrics.count("cache.header.miss", missing.size());
+
+        List<EmailHeader> headers = new ArrayList<>(messages.length);
+        for (int i = messages.length - 1; i >= 0; i--) {
+            Message msg = messages[i];
+            long uid = uidFolder.getUID(msg);
+            boolean seen = msg.isSet(Flags.Flag.SEEN);
+            EmailHeader header = local.getHeader(uid);
+            if (header == null) {
+                header = new EmailHeader();
+                header.uid = uid;
+                header.subject = msg.getSubject();
+                Address[] from = msg.getFrom();
+                header.from = (from != null && from.length > 0) ? from[0].toString() : "";
+                header.date = msg.getReceivedDate() != null ? msg.getReceivedDate() : msg.getSentDate();
+                header.size = msg.getSize();
+                header.seen = seen;
+                local.putHeader(header);
+            } else if (header.seen != seen) {
+                header.seen = seen;
+                local.putHeader(header);
+            }
+            header.messageNumber = msg.getMessageNumber();
+            headers.add(header);
+        }
+        return headers;
+    }
+
+    // --- SERVER-SIDE SEARCH ---
+    // The server runs the search and answers with UIDs only; headers are then
+    // fetched a page at a time, so a hit list of thousands costs one small reply.
+
+    // The folder's UIDVALIDITY changed since the search, its UIDs now name other messages
+    public static class StaleSearchException extends MessagingException {
+        private static final long serialVersionUID = 1L;
+
+        StaleSearchException(String message) { super(message); }
+    }
+
+    public static class SearchResult {
+        final String folderName;
+        final long uidValidity;
+        final long[] uids; // newest first
+
+        SearchResult(String folderName, long uidValidity, long[] uids) {
+            this.folderName = folderName;
+            this.uidValidity = uidValidity;
+            this.uids = uids;
+        }
+
+        public int size() { return uids.length; }
+
+        public long[] page(int offset, int count) {
+            int from = Math.min(offset, uids.length);
+            return Arrays.copyOfRange(uids, from, Math.min(uids.length, from + count));
+        }
+    }
+
+    public SearchResult searchServer(String folderName, MailSearch criteria) throws Exception {
+        SearchTerm term = criteria.toTerm();
+        if (term == null) return new SearchResult(folderName, 0, new long[0]);
+        return withFolder(folderName, folder -> {
+            long uidValidity = ((UIDFolder) folder).getUIDValidity();
+            cache.folder(folderName).validate(uidValidity);
+            long[] uids;
+            try (Metrics.Sample sample = Metrics.start("imap.search")) {
+                uids = uidSearch((IMAPFolder) folder, term);
+                sample.ok();
             }
-            folder.close(false);
-        } catch (Exception e) { e.printStackTrace(); content.htmlBody = "Error: " + e.getMessage(); }
-        return content;
+            for (int i = 0, j = uids.length - 1; i < j; i++, j--) { long t = uids[i]; uids[i] = uids[j]; uids[j] = t; }
+            return new SearchResult(folderName, uidValidity, uids);
+        });
+    }
+
+    // One page of a search result, in the result's order; cached headers are reused.
+    // Throws StaleSearchException when the folder was recreated since the search.
+    public List<EmailHeader> getHeadersByUid(SearchResult result, int offset, int count) throws Exception {
+        long[] uids = result.page(offset, count);
+        if (uids.length == 0) return new ArrayList<>();
+        long[] ascending = uids.clone();
+        Arrays.sort(ascending);
+        String folderName = result.folderName;
+        return withFolder(folderName, folder -> {
+            long uidValidity = ((UIDFolder) folder).getUIDValidity();
+            if (uidValidity != result.uidValidity) {
+                cache.folder(folderName).validate(uidValidity);
+                throw new StaleSearchException("The folder changed on the server, the search has to run again.");
+            }
+            Message[] found = ((UIDFolder) folder).getMessagesByUID(ascending);
+            List<Message> present = new ArrayList<>(found.length);
+            for (Message msg : found) if (msg != null) present.add(msg); // expunged since the search
+            List<EmailHeader> headers = fetchHeaders(folder, present.toArray(new Message[0]), cache.folder(folderName));
+            headers.sort((a, b) -> Long.compare(b.uid, a.uid));
+            return headers;
+        });
+    }
+
+    // UID SEARCH, which Angus Mail doesn't expose: its folder.search() answers with
+    // message numbers and would need a second round trip to turn them into UIDs
+    private static long[] uidSearch(IMAPFolder folder, SearchTerm term) throws MessagingException {
+        return (long[]) folder.doCommand(p -> {
+            Argument args = new Argument();
+            String charset = SearchSequence.isAscii(term) ? null : "UTF-8";
+            try {
+                if (charset != null) args.writeAtom("CHARSET").writeAtom(charset);
+                args.append(new SearchSequence(p).generateSequence(term, charset));
+            } catch (SearchException | IOException e) {
+                throw new ProtocolException("Search not supported by the server: " + e.getMessage(), e);
+            }
+            Response[] responses = p.command("UID SEARCH", args);
+            Response result = responses[responses.length - 1];
+            long[] uids = new long[16];
+            int count = 0;
+            if (result.isOK()) {
+                for (Response r : responses) {
+                    if (!(r instanceof IMAPResponse) || !((IMAPResponse) r).keyEquals("SEARCH")) continue;
+                    long uid;
+                    while ((uid = r.readLong()) != -1) {
+                        if (count == uids.length) uids = Arrays.copyOf(uids, count * 2);
+                        uids[count++] = uid;
+                    }
+                }
+            }
+            p.notifyResponseHandlers(responses);
+            p.handleResult(result);
+            long[] sorted = Arrays.copyOf(uids, count);
+            Arrays.sort(sorted);
+            return sorted;
+        });
+    }
+
+    // --- RESYNC ---
+    // Brings the cached flags and deletions for the folder up to date (see FolderSync);
+    // meant for reconnects and the sync daemon, where re-listing everything would take minutes
+    public FolderSync.Result syncFolder(String folderName) throws Exception {
+        return withConnection(connection -> {
+            IMAPFolder folder = (IMAPFolder) connection.store.getFolder(folderName);
+            try {
+                return FolderSync.open(folder, cache.folder(folderName));
+            } finally {
+                if (folder.isOpen()) folder.close(false);
+            }
+        });
+    }
+
+    // --- PUSH UPDATES ---
+    // Events are delivered on a background thread; the caller stops the watcher when done.
+    // The watcher has its own connection, IDLE would otherwise hold a pooled one forever.
+    public MailboxWatcher watchFolder(String folderName, Consumer<MailboxWatcher.Event> listener) {
+        MailboxWatcher watcher = new MailboxWatcher(() -> connect(ConnectionSupervisor.IDLE_READ_TIMEOUT_MILLIS), folderName, cache.folder(folderName), POLL_MILLIS, listener);
+        watcher.start();
+        return watcher;
+    }
+
+    // --- INDEX-BASED ACCESS (kept for older callers) ---
+    // The position is resolved to a UID against the open folder, then read by UID.
+    public EmailContent readSpecificEmail(String folderName, int indexFromTop) {
+        try {
+            long uid = uidAt(folderName, indexFromTop);
+            return uid > 0 ? readEmailByUid(folderName, uid) : new EmailContent();
+        } catch (Exception e) {
+            e.printStackTrace();
+            EmailContent content = new EmailContent();
+            content.htmlBody = "Error: " + e.getMessage();
+            return content;
+        }
     }
 
     public String downloadAttachment(String folderName, int indexFromTop, String filenameToDownload) {
         try {
-            Store currentStore = getStore();
-            Folder folder = currentStore.getFolder(folderName);
-            folder.open(Folder.READ_ONLY);
-            Message[] messages = folder.getMessages();
-            int actualIndex = messages.length - 1 - indexFromTop;
-            Message msg = messages[actualIndex];
-            String userHome = System.getProperty("user.home");
-            String downloadPath = userHome + File.separator + "Downloads" + File.separator + filenameToDownload;
-            boolean found = saveSpecificPart(msg, filenameToDownload, downloadPath);
-            folder.close(false);
-            if (found) return "Saved to Downloads: " + filenameToDownload;
-            else return "Error: Could not find attachment.";
+            long uid = uidAt(folderName, indexFromTop);
+            if (uid <= 0) return "Error: Could not find attachment.";
+            return downloadAttachmentByUid(folderName, uid, filenameToDownload);
         } catch (Exception e) { return "Error downloading: " + e.getMessage(); }
     }
 
-    private boolean saveSpecificPart(Part part, String targetName, String destPath) throws Exception {
-        if (part.isMimeType("multipart/*")) {
-            Multipart mp = (Multipart) part.getContent();
-            for (int i = 0; i < mp.getCount(); i++) {
-                if (saveSpecificPart(mp.getBodyPart(i), targetName, destPath)) return true;
-            }
-        } else if (part.getFileName() != null && part.getFileName().equalsIgnoreCase(targetName)) {
-            ((MimeBodyPart) part).saveFile(destPath);
-            return true;
+    private long uidAt(String folderName, int indexFromTop) throws Exception {
+        return withFolder(folderName, folder -> {
+            int number = folder.getMessageCount() - indexFromTop;
+            if (number < 1) return -1L;
+            return ((UIDFolder) folder).getUID(folder.getMessage(number));
+        });
+    }
+
+    // --- UID-BASED ACCESS ---
+    // UIDs stay valid when new mail arrives, and the folder stays selected,
+    // so each call is a targeted FETCH on an already open folder.
+    public EmailContent readEmailByUid(String folderName, long uid) {
+        try {
+            EmailContent content = fetchEmailByUid(folderName, uid);
+            if (content != null) return content;
+            content = new EmailContent();
+            content.htmlBody = "Error: This message no longer exists on the server.";
+            return content;
+        } catch (Exception e) {
+            e.printStackTrace();
+            EmailContent content = new EmailContent();
+            content.htmlBody = "Error: " + e.getMessage();
+            return content;
         }
-        return false;
-    }
-
-    private String getTextAndExtractFilenames(Part part, List<String> attachments) throws Exception {
-        if (part.isMimeType("text/plain")) return part.getContent().toString();
-        else if (part.isMimeType("text/html")) return part.getContent().toString();
-        else if (part.isMimeType("multipart/*")) {
-            Multipart mp = (Multipart) part.getContent();
-            StringBuilder result = new StringBuilder();
-            for (int i = 0; i < mp.getCount(); i++) result.append(getTextAndExtractFilenames(mp.getBodyPart(i), attachments));
-            return result.toString();
-        } else if (part.getFileName() != null) {
-            attachments.add(part.getFileName());
+    }
+
+    // Same, for callers that handle failures themselves; null if the message is gone
+    public EmailContent fetchEmailByUid(String folderName, long uid) throws Exception {
+        return withFolder(folderName, folder -> {
+            UIDFolder uidFolder = (UIDFolder) folder;
+            MessageCache.FolderData local = cache.folder(folderName);
+            local.validate(uidFolder.getUIDValidity());
+            EmailContent cached = local.getContent(uid);
+            Metrics.count(cached != null ? "cache.body.hit" : "cache.body.miss");
+            if (cached != null) return cached;
+
+            EmailContent content = new EmailContent();
+            // The body parts are fetched lazily while the MIME tree is walked, so this times both
+            try (Metrics.Sample sample = Metrics.start("imap.fetch.body")) {
+                Message msg = uidFolder.getMessageByUID(uid);
+                if (msg == null) return null;
+                MessageRenderer.render(msg, InlinePartHandler.urlPrefix(userEmail, folderName, uid), content);
+                // Both are sender-controlled and may be missing
+                String subject = msg.getSubject() != null ? msg.getSubject() : "";
+                Address[] from = msg.getFrom();
+                String sender = (from != null && from.length > 0) ? from[0].toString() : "";
+                String header = "<h3>Subject: " + MessageRenderer.escape(subject) + "</h3>" +
+                        "<p><b>From:</b> " + MessageRenderer.escape(sender) + "</p><hr>";
+                content.htmlBody = header + content.htmlBody;
+                sample.bytes(Math.max(0, msg.getSize()));
+                sample.ok();
+            }
+            local.putContent(uid, content);
+            return content;
+        });
+    }
+
+    // True while a background job can borrow a connection and still leave one free for the screens
+    public boolean hasSpareConnection() {
+        return pool.getInUseCount() < pool.getMaxSize() - 1 && pool.hasSharedSpare();
+    }
+
+    // With several accounts in one process: connections also count against this shared budget
+    public void useConnectionBudget(ConnectionBudget budget) {
+        pool.setBudget(budget, userEmail.toLowerCase());
+    }
+
+    public String getUserEmail() { return userEmail; }
+
+    public String downloadAttachmentByUid(String folderName, long uid, String filenameToDownload) {
+        try {
+            Path saved = downloadAttachmentByUid(folderName, uid, filenameToDownload, null, null);
+            if (saved != null) return "Saved to Downloads: " + saved.getFileName();
+            else return "Error: Download cancelled.";
+        } catch (Exception e) { return "Error downloading: " + e.getMessage(); }
+    }
+
+    // Streams the attachment into Downloads; a cancelled or broken download is
+    // resumed by calling this again. Returns null when cancelled.
+    public Path downloadAttachmentByUid(String folderName, long uid, String filenameToDownload,
+                                        AttachmentDownload.Progress progress, BooleanSupplier cancelled) throws Exception {
+        Path target = getDownloadPath(filenameToDownload);
+        if (!downloadsDir().equals(target.normalize().getParent())) {
+            throw new IOException("Refusing to save outside Downloads: " + filenameToDownload);
         }
-        return "";
+        return withFolder(folderName, folder -> {
+            IMAPMessage msg = (IMAPMessage) ((UIDFolder) folder).getMessageByUID(uid);
+            if (msg == null) throw new MessagingException("This message no longer exists on the server.");
+            AttachmentDownload download = AttachmentDownload.locate((IMAPFolder) folder, msg, uid, filenameToDownload, target);
+            if (download == null) throw new MessagingException("Could not find attachment.");
+            try (Metrics.Sample sample = Metrics.start("imap.download")) {
+                Path saved = download.run(progress, cancelled);
+                if (saved != null) {
+                    sample.bytes(Files.size(saved));
+                    sample.ok();
+                }
+                return saved;
+            }
+        });
+    }
+
+    // Only the last path element of a sender-supplied name is used, with control and
+    // reserved characters replaced; ".", ".." and blank names become "attachment"
+    public static Path getDownloadPath(String filename) {
+        String name = filename != null ? filename : "";
+        name = name.substring(Math.max(name.lastIndexOf('/'), name.lastIndexOf('\\')) + 1);
+        name = name.replaceAll("[\\p{Cntrl}:*?\"<>|]", "_").trim();
+        if (name.isEmpty() || name.equals(".") || name.equals("..")) name = "attachment";
+        return downloadsDir().resolve(name);
+    }
+
+    private static Path downloadsDir() {
+        return Paths.get(System.getProperty("user.home"), "Downloads");
+    }
+
+    // One section by number, fetched on its own (used for inline images)
+    public PartData fetchPart(String folderName, long uid, String section) throws Exception {
+        return withFolder(folderName, folder -> {
+            Message msg = ((UIDFolder) folder).getMessageByUID(uid);
+            Part part = msg != null ? MessageRenderer.partAt(msg, section) : null;
+            if (part == null) return null;
+            PartData data = new PartData();
+            try (InputStream in = part.getInputStream()) { data.bytes = in.readAllBytes(); }
+            String type = part.getContentType();
+            data.contentType = type != null ? type.split(";")[0].trim().toLowerCase() : "application/octet-stream";
+            return data;
+        });
     }
 }
\ No newline at end of file
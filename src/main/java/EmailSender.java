@@ -1,22 +1,58 @@
 import jakarta.mail.*;
 import jakarta.mail.internet.*;
+import org.eclipse.angus.mail.smtp.SMTPTransport;
 import java.io.File;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class EmailSender {
+    private static final int CHUNK_SIZE = Integer.getInteger("golden.smtp.chunksize", 0);
+
+    // Message size limits (EHLO SIZE) by host. Seeded with what the big providers
+    // advertise, replaced by what the server actually says once we have connected.
+    private static final Map<String, Long> SIZE_LIMITS = new ConcurrentHashMap<>(Map.of(
+            "smtp.gmail.com", 35_882_577L,
+            "smtp.mail.yahoo.com", 41_697_280L,
+            "smtp.office365.com", 157_286_400L));
+
+    public static class MessageTooLargeException extends MessagingException {
+        private static final long serialVersionUID = 1L;
+
+        MessageTooLargeException(String message) { super(message); }
+    }
+
     private String userEmail;
     private String userPassword;
+    private final String host;
+    private final int port;
     private Session session;
     private Transport transport;
+    private Transport spare; // guarded by this; connected by warmUp() for whoever needs a transport next
+    private boolean closed;  // guarded by this
 
     public EmailSender(String email, String password) {
+        this(email, password, defaultHost(email), 587);
+    }
+
+    // Explicit server, e.g. a local SMTP stand-in when trying out bulk sends
+    public EmailSender(String email, String password, String host, int port) {
         this.userEmail = email;
         this.userPassword = password;
+        this.host = host;
+        this.port = port;
     }
 
-    private void ensureConnected() throws MessagingException {
-        if (transport == null || !transport.isConnected()) {
+    private static String defaultHost(String email) {
+        if (email.contains("yahoo")) return "smtp.mail.yahoo.com";
+        if (email.contains("outlook")) return "smtp.office365.com";
+        return "smtp.gmail.com";
+    }
+
+    synchronized Session getSession() {
+        if (session == null) {
             Properties props = new Properties();
             props.put("mail.smtp.auth", "true");
             props.put("mail.smtp.starttls.enable", "true");
@@ -26,28 +62,141 @@ public class EmailSender {
             props.put("mail.smtp.timeout", "15000");
             props.put("mail.smtp.writetimeout", "15000");
 
-            String host = "smtp.gmail.com";
-            if (userEmail.contains("yahoo")) host = "smtp.mail.yahoo.com";
-            else if (userEmail.contains("outlook")) host = "smtp.office365.com";
-
             props.put("mail.smtp.host", host);
-            props.put("mail.smtp.port", "587");
+            props.put("mail.smtp.port", String.valueOf(port));
+            // Opt-in: BDAT in chunks of this size when the server offers CHUNKING, instead of
+            // DATA with dot-stuffing. Angus has no PIPELINING, so commands still go one at a time.
+            if (CHUNK_SIZE > 0) props.put("mail.smtp.chunksize", String.valueOf(CHUNK_SIZE));
+            WireCounter.install(props, "smtp");
 
             session = Session.getInstance(props, new Authenticator() {
                 @Override protected PasswordAuthentication getPasswordAuthentication() {
                     return new PasswordAuthentication(userEmail, userPassword);
                 }
             });
+        }
+        return session;
+    }
+
+    // A connection of its own; bulk sends keep several of these open at once.
+    // The one warmUp() opened is handed out first, if the server hasn't dropped it.
+    Transport openTransport() throws MessagingException {
+        Transport warm = takeSpare();
+        return warm != null ? warm : connectTransport();
+    }
+
+    // Connects and authenticates now, at login, so the first send skips the handshake
+    public void warmUp() throws MessagingException {
+        Transport t = connectTransport();
+        Transport previous;
+        synchronized (this) {
+            if (closed) {
+                previous = t;
+            } else {
+                previous = spare;
+                spare = t;
+            }
+        }
+        closeQuietly(previous);
+    }
+
+    private Transport takeSpare() {
+        Transport warm;
+        synchronized (this) {
+            warm = spare;
+            spare = null;
+        }
+        if (warm == null || warm.isConnected()) return warm; // isConnected() is a NOOP round trip
+        closeQuietly(warm);
+        return null;
+    }
 
-            transport = session.getTransport("smtp");
-            transport.connect(host, userEmail, userPassword);
+    // At logout: the kept and the warmed connection are closed, a later warmUp() is dropped
+    public void close() {
+        Transport kept;
+        Transport warm;
+        synchronized (this) {
+            closed = true;
+            kept = transport;
+            warm = spare;
+            transport = null;
+            spare = null;
+        }
+        closeQuietly(kept);
+        closeQuietly(warm);
+    }
+
+    private static void closeQuietly(Transport t) {
+        if (t == null) return;
+        try { t.close(); } catch (MessagingException ignored) {}
+    }
+
+    private Transport connectTransport() throws MessagingException {
+        Transport t = getSession().getTransport("smtp");
+        try (Metrics.Sample sample = Metrics.start("smtp.connect")) {
+            t.connect(host, port, userEmail, userPassword);
+            sample.ok();
+        }
+        if (t instanceof SMTPTransport) {
+            String size = ((SMTPTransport) t).getExtensionParameter("SIZE");
+            try {
+                long limit = size != null ? Long.parseLong(size.trim()) : 0;
+                if (limit > 0) SIZE_LIMITS.put(host, limit);
+                else SIZE_LIMITS.remove(host); // SIZE 0 or no SIZE: the server states no limit
+            } catch (NumberFormatException ignored) {}
+        }
+        return t;
+    }
+
+    // Throws before anything is sent or queued if the message can't fit the server's limit
+    public void checkSize(long messageBytes) throws MessageTooLargeException {
+        Long limit = SIZE_LIMITS.get(host);
+        if (limit != null && messageBytes > limit) {
+            throw new MessageTooLargeException(String.format("Message is about %.1f MB, %s accepts at most %.1f MB.",
+                    messageBytes / 1048576.0, host, limit / 1048576.0));
+        }
+    }
+
+    // Size on the wire: attachments grow by a third in base64, plus a CRLF every 76 characters
+    public static long estimateSize(String body, List<File> attachments) {
+        long size = 2048 + (body != null ? body.getBytes(StandardCharsets.UTF_8).length : 0);
+        if (attachments != null) {
+            for (File f : attachments) {
+                long encoded = (f.length() + 2) / 3 * 4;
+                size += encoded + encoded / 76 * 2 + 512;
+            }
+        }
+        return size;
+    }
+
+    String getUserEmail() { return userEmail; }
+
+    String getHost() { return host; }
+
+    private void ensureConnected() throws MessagingException {
+        if (transport == null || !transport.isConnected()) {
+            transport = openTransport();
         }
     }
 
     public void sendEmail(String toEmail, String subject, String body, List<File> attachments) throws Exception {
         ensureConnected(); // Reuse connection if possible
 
-        Message message = new MimeMessage(session);
+        MimeMessage message = buildMessage(toEmail, subject, body, attachments);
+
+        // Use the open transport to send
+        transport.sendMessage(message, message.getAllRecipients());
+        System.out.println("Email sent successfully!");
+
+        // Note: We intentionally DO NOT close the transport here to keep it ready for the next email.
+    }
+
+    // Attachments are read when the message is written out, not here: each file is
+    // streamed from disk through the base64 encoder into whatever the message is written to
+    public MimeMessage buildMessage(String toEmail, String subject, String body, List<File> attachments) throws Exception {
+        checkSize(estimateSize(body, attachments));
+
+        MimeMessage message = new MimeMessage(getSession());
         message.setFrom(new InternetAddress(userEmail));
         message.setRecipients(Message.RecipientType.TO, InternetAddress.parse(toEmail));
         message.setSubject(subject);
@@ -60,16 +209,12 @@ public class EmailSender {
         if (attachments != null) {
             for (File item : attachments) {
                 MimeBodyPart filePart = new MimeBodyPart();
-                filePart.attachFile(item);
+                // Naming the encoding up front skips the pass that reads the whole file to choose one
+                filePart.attachFile(item, null, "base64");
                 multipart.addBodyPart(filePart);
             }
         }
         message.setContent(multipart);
-
-        // Use the open transport to send
-        transport.sendMessage(message, message.getAllRecipients());
-        System.out.println("Email sent successfully!");
-
-        // Note: We intentionally DO NOT close the transport here to keep it ready for the next email.
+        return message;
     }
 }
\ No newline at end of file
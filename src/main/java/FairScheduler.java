@@ -0,0 +1,83 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+// Background mail work for all accounts on one set of threads. Every account
+// has its own queue and the workers take from the queues in turn, so an
+// account that queued a thousand header pages gets one thread's worth of turns
+// while another account's single message read goes out on the next free one.
+//
+// Platform threads, for the same reason as TaskScheduler.
+public class FairScheduler {
+    private final Map<String, ArrayDeque<FutureTask<?>>> queues = new LinkedHashMap<>(); // guarded by this; in turn order
+    private final List<Thread> workers = new ArrayList<>();
+    private boolean shutdown; // guarded by this
+
+    public FairScheduler(int threads) {
+        for (int i = 0; i < Math.max(1, threads); i++) {
+            Thread t = new Thread(this::work, "mail-io-" + (i + 1));
+            t.setDaemon(true);
+            t.start();
+            workers.add(t);
+        }
+    }
+
+    public synchronized <T> Future<T> submit(String account, Callable<T> work) {
+        FutureTask<T> task = new FutureTask<>(work);
+        if (shutdown) {
+            task.cancel(false);
+            return task;
+        }
+        queues.computeIfAbsent(account, a -> new ArrayDeque<>()).add(task);
+        notify();
+        return task;
+    }
+
+    public synchronized int getQueued(String account) {
+        ArrayDeque<FutureTask<?>> queue = queues.get(account);
+        return queue != null ? queue.size() : 0;
+    }
+
+    // Everything still queued for the account is dropped, e.g. when it is removed; running work finishes
+    public synchronized void cancelAll(String account) {
+        ArrayDeque<FutureTask<?>> queue = queues.remove(account);
+        if (queue != null) queue.forEach(task -> task.cancel(false));
+    }
+
+    public synchronized void shutdown() {
+        shutdown = true;
+        queues.values().forEach(queue -> queue.forEach(task -> task.cancel(false)));
+        queues.clear();
+        notifyAll();
+    }
+
+    private void work() {
+        while (true) {
+            FutureTask<?> task;
+            synchronized (this) {
+                while (!shutdown && queues.isEmpty()) {
+                    try { wait(); } catch (InterruptedException e) { return; }
+                }
+                if (shutdown) return;
+                task = next();
+            }
+            task.run();
+        }
+    }
+
+    // Head of the first queue in turn order; that account then goes to the back of the line
+    private FutureTask<?> next() {
+        Iterator<Map.Entry<String, ArrayDeque<FutureTask<?>>>> turn = queues.entrySet().iterator();
+        Map.Entry<String, ArrayDeque<FutureTask<?>>> first = turn.next();
+        turn.remove();
+        FutureTask<?> task = first.getValue().poll();
+        if (!first.getValue().isEmpty()) queues.put(first.getKey(), first.getValue());
+        return task;
+    }
+}
@@ -0,0 +1,128 @@
+import jakarta.mail.FetchProfile;
+import jakarta.mail.Flags;
+import jakarta.mail.Folder;
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+import jakarta.mail.UIDFolder;
+import jakarta.mail.event.MailEvent;
+import jakarta.mail.event.MessageChangedEvent;
+import org.eclipse.angus.mail.imap.IMAPFolder;
+import org.eclipse.angus.mail.imap.IMAPStore;
+import org.eclipse.angus.mail.imap.MessageVanishedEvent;
+import org.eclipse.angus.mail.imap.ResyncData;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Opens a folder and brings the local copy's flags and deletions up to date,
+// asking the server only for what changed since the last time:
+//   QRESYNC    the SELECT itself carries the last HIGHESTMODSEQ; the server answers
+//              with the changed flags and the VANISHED UIDs, one small response
+//   CONDSTORE  one UID FETCH ... (CHANGEDSINCE) for flags, plus the UID check below
+//   neither    the cached UIDs are asked for by UID (as ranges) in chunks; the
+//              ones that don't come back are gone, and their flags are compared
+// New messages are not part of this; the paged listing fetches those.
+// HIGHESTMODSEQ is kept in the folder's meta.properties.
+public class FolderSync {
+    private static final int UID_CHUNK = 5000; // UIDs per UID FETCH in the fallback
+
+    public static class Result {
+        public final String method;               // "qresync", "condstore", "uid-diff" or "none"
+        public final List<Long> vanished = new ArrayList<>();
+        public final List<EmailReceiver.EmailHeader> changed = new ArrayList<>(); // cached headers whose flags moved
+
+        Result(String method) { this.method = method; }
+
+        @Override public String toString() {
+            return method + ": " + vanished.size() + " vanished, " + changed.size() + " changed";
+        }
+    }
+
+    // 'folder' is not open yet; it is left open READ_ONLY
+    public static Result open(IMAPFolder folder, MessageCache.FolderData local) throws MessagingException {
+        IMAPStore store = (IMAPStore) folder.getStore();
+        boolean qresync = store.hasCapability("QRESYNC") && store.hasCapability("ENABLE");
+        boolean condstore = qresync || store.hasCapability("CONDSTORE");
+        long knownModSeq = local.getHighestModSeq();
+        long knownValidity = local.uidValidity();
+
+        try (Metrics.Sample sample = Metrics.start("imap.resync")) {
+            Result result;
+            if (qresync && knownModSeq > 0 && knownValidity > 0) {
+                result = new Result("qresync");
+                List<MailEvent> events = folder.open(Folder.READ_ONLY, new ResyncData(knownValidity, knownModSeq));
+                if (local.validate(folder.getUIDValidity())) applyEvents(folder, events, local, result);
+            } else {
+                if (condstore) folder.open(Folder.READ_ONLY, ResyncData.CONDSTORE);
+                else folder.open(Folder.READ_ONLY);
+                if (!local.validate(folder.getUIDValidity()) || local.size() == 0) {
+                    result = new Result("none"); // nothing cached (any more) to bring up to date
+                } else if (condstore && knownModSeq > 0) {
+                    result = new Result("condstore");
+                    long[] uids = local.uids();
+                    Message[] changed = folder.getMessagesByUIDChangedSince(1, uids[uids.length - 1], knownModSeq);
+                    for (Message msg : changed) applyFlags(folder.getUID(msg), msg, local, result);
+                    findVanished(folder, uids, local, result, false);
+                } else {
+                    result = new Result("uid-diff");
+                    findVanished(folder, local.uids(), local, result, true);
+                }
+            }
+            if (condstore) local.setHighestModSeq(folder.getHighestModSeq());
+            Metrics.count("imap.resync." + result.method);
+            sample.ok();
+            return result;
+        }
+    }
+
+    private static void applyEvents(IMAPFolder folder, List<MailEvent> events, MessageCache.FolderData local, Result result)
+            throws MessagingException {
+        if (events == null) return;
+        for (MailEvent event : events) {
+            if (event instanceof MessageVanishedEvent) {
+                for (long uid : ((MessageVanishedEvent) event).getUIDs()) remove(uid, local, result);
+            } else if (event instanceof MessageChangedEvent) {
+                Message msg = ((MessageChangedEvent) event).getMessage();
+                applyFlags(folder.getUID(msg), msg, local, result);
+            }
+        }
+    }
+
+    // Asks for the cached UIDs by UID; the ones the server doesn't return were expunged.
+    // With withFlags the survivors' flags are fetched and compared too.
+    private static void findVanished(IMAPFolder folder, long[] uids, MessageCache.FolderData local, Result result,
+                                     boolean withFlags) throws MessagingException {
+        FetchProfile flags = new FetchProfile();
+        flags.add(FetchProfile.Item.FLAGS);
+        for (int start = 0; start < uids.length; start += UID_CHUNK) {
+            long[] chunk = Arrays.copyOfRange(uids, start, Math.min(uids.length, start + UID_CHUNK));
+            Message[] found = folder.getMessagesByUID(chunk); // null where the UID is gone
+            List<Message> present = new ArrayList<>();
+            for (int i = 0; i < chunk.length; i++) {
+                if (found[i] == null) remove(chunk[i], local, result);
+                else present.add(found[i]);
+            }
+            if (!withFlags || present.isEmpty()) continue;
+            Message[] survivors = present.toArray(new Message[0]);
+            folder.fetch(survivors, flags);
+            for (Message msg : survivors) applyFlags(folder.getUID(msg), msg, local, result);
+        }
+    }
+
+    private static void remove(long uid, MessageCache.FolderData local, Result result) {
+        if (local.getHeader(uid) == null) return;
+        local.remove(uid);
+        result.vanished.add(uid);
+    }
+
+    // Only messages the cache knows about; unknown ones come in with the next listing
+    private static void applyFlags(long uid, Message msg, MessageCache.FolderData local, Result result) throws MessagingException {
+        EmailReceiver.EmailHeader header = local.getHeader(uid);
+        if (header == null) return;
+        boolean seen = msg.isSet(Flags.Flag.SEEN);
+        if (header.seen == seen) return;
+        header.seen = seen;
+        local.putHeader(header);
+        result.changed.add(header);
+    }
+}
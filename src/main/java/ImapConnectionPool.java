@@ -0,0 +1,184 @@
+import jakarta.mail.MessagingException;
+import jakarta.mail.Store;
+import java.util.concurrent.Callable;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+// A bounded set of logged-in IMAP connections. A caller borrows one, has it to
+// itself, and gives it back; independent reads therefore run side by side
+// instead of queueing on a single Store.
+public class ImapConnectionPool {
+    private static final long CHECK_AFTER_IDLE_MILLIS = 60 * 1000;
+    private static final long BORROW_TIMEOUT_SECONDS = 60;
+
+    public static class Connection {
+        final Store store;
+        final OpenFolderCache folders;
+        long lastUsed = System.currentTimeMillis();
+        boolean suspect;
+        ConnectionBudget budget; // the budget it was borrowed under, so it is paid back there
+
+        Connection(Store store, long folderIdleMillis) {
+            this.store = store;
+            this.folders = new OpenFolderCache(folderIdleMillis);
+        }
+    }
+
+    private final Callable<Store> connector;
+    private final int maxSize;
+    private final long folderIdleMillis;
+    private final Semaphore permits;
+    private final LinkedBlockingDeque<Connection> idle; // never more than maxSize
+    private volatile boolean shutdown;
+    private volatile ConnectionBudget budget; // shared with other accounts' pools, null when alone
+    private volatile String account;
+    private final ScheduledFuture<?> keepalive;
+
+    public ImapConnectionPool(Callable<Store> connector, int maxSize, long folderIdleMillis) {
+        this.connector = connector;
+        this.maxSize = maxSize;
+        this.folderIdleMillis = folderIdleMillis;
+        this.permits = new Semaphore(maxSize, true);
+        this.idle = new LinkedBlockingDeque<>(maxSize);
+        this.keepalive = ConnectionSupervisor.watch(this);
+    }
+
+    public int getMaxSize() { return maxSize; }
+
+    public int getIdleCount() { return idle.size(); }
+
+    public int getInUseCount() { return maxSize - permits.availablePermits(); }
+
+    // From now on every borrow also takes a slot from the process-wide budget
+    public void setBudget(ConnectionBudget budget, String account) {
+        this.account = account;
+        this.budget = budget;
+    }
+
+    // False when the shared budget is down to its last slot, which is left for the screens
+    public boolean hasSharedSpare() {
+        ConnectionBudget shared = budget;
+        return shared == null || shared.getInUse() < shared.getLimit() - 1;
+    }
+
+    public Connection borrow() throws Exception {
+        if (shutdown) throw new MessagingException("Connection pool is closed");
+        if (!permits.tryAcquire(BORROW_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            throw new MessagingException("Timed out waiting for a free IMAP connection");
+        }
+        ConnectionBudget shared = budget;
+        try {
+            if (shared != null) shared.acquire(account, BORROW_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            permits.release();
+            throw e;
+        }
+        try {
+            Connection connection;
+            while ((connection = idle.pollFirst()) != null) {
+                if (isHealthy(connection)) {
+                    connection.budget = shared;
+                    return connection;
+                }
+                close(connection);
+            }
+            connection = new Connection(connect(), folderIdleMillis);
+            connection.budget = shared;
+            return connection;
+        } catch (Exception e) {
+            if (shared != null) shared.release(account);
+            permits.release();
+            throw e;
+        }
+    }
+
+    // A refused, reset or timed-out attempt is tried again after a jittered pause;
+    // a rejected password is not
+    private Store connect() throws Exception {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return connector.call();
+            } catch (Exception e) {
+                if (shutdown || attempt >= ConnectionSupervisor.CONNECT_ATTEMPTS
+                        || !ConnectionSupervisor.isConnectionFailure(e)) throw e;
+                ConnectionSupervisor.pause(attempt, "imap.reconnect", e);
+            }
+        }
+    }
+
+    // suspect = the caller hit an error, so check the connection before lending it again
+    public void giveBack(Connection connection, boolean suspect) {
+        connection.lastUsed = System.currentTimeMillis();
+        connection.suspect = suspect;
+        release(connection, shutdown);
+    }
+
+    // For a connection the caller knows is dead: closed instead of re-checked later
+    public void discard(Connection connection) {
+        release(connection, true);
+    }
+
+    private void release(Connection connection, boolean close) {
+        ConnectionBudget shared = connection.budget;
+        connection.budget = null;
+        // Most recently used first, the rest can age out. The deque is full when a borrow
+        // logged in afresh while keepAlive() had the idle one out: the extra one is closed.
+        if (close || !idle.offerFirst(connection)) close(connection);
+        if (shared != null) shared.release(account);
+        permits.release();
+    }
+
+    // Called by ConnectionSupervisor: NOOPs the connections idle for longer than
+    // idleMillis, longest idle first, on the store and on every folder it keeps open,
+    // and closes what doesn't answer. A connection is out of the deque while it is
+    // checked, so no borrower uses it at the same time.
+    void keepAlive(long idleMillis) {
+        long cutoff = System.currentTimeMillis() - idleMillis;
+        for (int n = idle.size(); n > 0 && !shutdown; n--) {
+            Connection connection = idle.pollLast();
+            if (connection == null) return;
+            if (connection.lastUsed > cutoff) {
+                if (!idle.offerLast(connection)) close(connection); // the rest are fresher still
+                return;
+            }
+            if (connection.store.isConnected()) { // NOOP, bounded by the read timeout
+                Metrics.count("imap.keepalive");
+                int deadFolders = connection.folders.keepAlive();
+                if (deadFolders > 0) Metrics.count("imap.keepalive.dead", deadFolders);
+                connection.lastUsed = System.currentTimeMillis();
+                connection.suspect = false;
+                if (!idle.offerFirst(connection)) close(connection);
+            } else {
+                Metrics.count("imap.keepalive.dead");
+                close(connection);
+            }
+        }
+        if (shutdown) shutdown(); // closes anything put back while shutting down
+    }
+
+    public void shutdown() {
+        shutdown = true;
+        keepalive.cancel(false);
+        Connection connection;
+        while ((connection = idle.pollFirst()) != null) close(connection);
+    }
+
+    // Store.isConnected() sends a NOOP, so only ask when there is a reason to doubt.
+    // The open folders are checked too (and dropped if dead): they carry the reads.
+    private boolean isHealthy(Connection connection) {
+        boolean stale = System.currentTimeMillis() - connection.lastUsed > CHECK_AFTER_IDLE_MILLIS;
+        if (!connection.suspect && !stale) return true;
+        if (!connection.store.isConnected()) return false;
+        connection.folders.keepAlive();
+        return true;
+    }
+
+    private static void close(Connection connection) {
+        connection.folders.shutdown();
+        try {
+            connection.store.close();
+        } catch (MessagingException ignored) {}
+    }
+}
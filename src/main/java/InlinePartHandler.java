@@ -0,0 +1,86 @@
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.net.URLStreamHandler;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Serves mailpart://<account>/<folder>/<uid>/<section> URLs, which is what the
+// renderer turns cid: references into. The WebView only opens them for images it
+// actually draws, so inline parts are fetched on demand, one section at a time.
+public class InlinePartHandler extends URLStreamHandler {
+    static final String PROTOCOL = "mailpart";
+
+    private static final Map<String, EmailReceiver> RECEIVERS = new ConcurrentHashMap<>();
+    private static boolean installed;
+
+    // The JVM allows one URL handler factory, so this is done once, at startup
+    public static synchronized void install() {
+        if (installed) return;
+        try {
+            URL.setURLStreamHandlerFactory(protocol -> PROTOCOL.equals(protocol) ? new InlinePartHandler() : null);
+        } catch (Error alreadySet) {
+            System.err.println("mailpart: URLs unavailable, a URL handler factory is already set");
+        }
+        installed = true;
+    }
+
+    public static void register(String email, EmailReceiver receiver) {
+        RECEIVERS.put(accountKey(email), receiver);
+    }
+
+    public static void unregister(String email, EmailReceiver receiver) {
+        RECEIVERS.remove(accountKey(email), receiver);
+    }
+
+    public static String urlPrefix(String email, String folderName, long uid) {
+        return PROTOCOL + "://" + accountKey(email) + "/" + URLEncoder.encode(folderName, StandardCharsets.UTF_8) + "/" + uid + "/";
+    }
+
+    private static String accountKey(String email) {
+        return "a" + Integer.toHexString(email.toLowerCase().hashCode());
+    }
+
+    @Override
+    protected URLConnection openConnection(URL url) {
+        return new URLConnection(url) {
+            private EmailReceiver.PartData data;
+
+            @Override public void connect() throws IOException {
+                if (data != null) return;
+                EmailReceiver receiver = RECEIVERS.get(url.getHost());
+                String[] path = url.getPath().split("/");  // "", folder, uid, section
+                if (receiver == null || path.length != 4) throw new FileNotFoundException(url.toString());
+                try {
+                    String folderName = URLDecoder.decode(path[1], StandardCharsets.UTF_8);
+                    data = receiver.fetchPart(folderName, Long.parseLong(path[2]), path[3]);
+                } catch (Exception e) {
+                    throw new IOException("Could not load " + url, e);
+                }
+                if (data == null) throw new FileNotFoundException(url.toString());
+                connected = true;
+            }
+
+            @Override public InputStream getInputStream() throws IOException {
+                connect();
+                return new ByteArrayInputStream(data.bytes);
+            }
+
+            @Override public String getContentType() {
+                try { connect(); } catch (IOException e) { return null; }
+                return data.contentType;
+            }
+
+            @Override public int getContentLength() {
+                try { connect(); } catch (IOException e) { return -1; }
+                return data.bytes.length;
+            }
+        };
+    }
+}
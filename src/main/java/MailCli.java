@@ -0,0 +1,401 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+
+// The mail engines without the window: for scripts, cron jobs and servers.
+// Nothing here touches JavaFX, so a command is a JVM plus one IMAP or SMTP
+// conversation. Same jar as the GUI; AppLauncher sends these commands here:
+//
+//   folders                                  one folder name per line
+//   headers [folder] [--count N] [--offset N]  uid, date, seen, from, subject (tab-separated, newest first)
+//   read <folder> <uid> [--html]             the message as text (or its HTML), then its attachments
+//   download <folder> <uid> <attachment>     saved to ~/Downloads, resumed if a previous run broke off
+//   send <to> <subject> [--body TEXT | --body-file FILE] [--attach FILE]...
+//   bulk-send <recipients.csv> <subject> --body-file FILE [--attach FILE]...
+//   sync [folder...] [--count N]             keep the local cache current, print changes as they arrive
+//   unified [folder] [--count N] [--offset N]  the folder of every account, merged newest first
+//
+// The account comes from GOLDEN_EMAIL / GOLDEN_PASSWORD, or else from the
+// config.properties the GUI saves at login. unified reads email=password lines
+// from the file GOLDEN_ACCOUNTS names (accounts.properties by default).
+public class MailCli {
+
+    static final Set<String> COMMANDS = Set.of("folders", "headers", "read", "download", "send", "bulk-send", "sync", "unified", "help");
+
+    private static final String CONFIG_FILE = "config.properties";
+    private static final String ACCOUNTS_FILE = "accounts.properties";
+    private static final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+
+    private final PrintStream out;
+    private final String email;
+    private final String password;
+
+    private MailCli(PrintStream out, String email, String password) {
+        this.out = out;
+        this.email = email;
+        this.password = password;
+    }
+
+    static boolean isCommand(String arg) {
+        return COMMANDS.contains(arg);
+    }
+
+    public static void main(String[] args) {
+        System.exit(run(args));
+    }
+
+    // Exit status: 0 done, 1 failed, 2 bad usage
+    static int run(String[] args) {
+        if (args.length == 0 || args[0].equals("help")) {
+            usage(System.out);
+            return args.length == 0 ? 2 : 0;
+        }
+        Options options;
+        try {
+            options = Options.parse(Arrays.copyOfRange(args, 1, args.length));
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            return 2;
+        }
+
+        String[] account = loadAccount();
+        if (account == null && !args[0].equals("unified")) {
+            System.err.println("No account: set GOLDEN_EMAIL and GOLDEN_PASSWORD, or log in once with the GUI.");
+            return 1;
+        }
+        MailCli cli = account != null ? new MailCli(System.out, account[0], account[1]) : new MailCli(System.out, null, null);
+        try {
+            switch (args[0]) {
+                case "folders" -> cli.folders();
+                case "headers" -> cli.headers(options);
+                case "read" -> cli.read(options);
+                case "download" -> cli.download(options);
+                case "send" -> cli.send(options);
+                case "bulk-send" -> cli.bulkSend(options);
+                case "sync" -> cli.sync(options);
+                case "unified" -> cli.unified(options);
+                default -> throw new IllegalArgumentException("Unknown command: " + args[0]);
+            }
+            return 0;
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            return 2;
+        } catch (Exception e) {
+            System.err.println("Error: " + e.getMessage());
+            return 1;
+        } finally {
+            System.out.flush();
+        }
+    }
+
+    // --- READING ---
+
+    private void folders() {
+        EmailReceiver receiver = new EmailReceiver(email, password);
+        try {
+            List<String> names = receiver.getFolderList();
+            if (names.isEmpty()) throw new IllegalStateException("Could not list folders.");
+            names.forEach(out::println);
+        } finally {
+            receiver.close();
+        }
+    }
+
+    private void headers(Options options) throws Exception {
+        String folder = options.positional(0, "INBOX");
+        int count = options.intValue("count", 20);
+        int offset = options.intValue("offset", 0);
+        EmailReceiver receiver = new EmailReceiver(email, password);
+        try {
+            int total = receiver.getMessageCount(folder);
+            int last = total - offset;
+            List<EmailReceiver.EmailHeader> headers = receiver.getHeadersBySequence(folder, Math.max(1, last - count + 1), last);
+            for (EmailReceiver.EmailHeader header : headers) printHeader(header);
+        } finally {
+            receiver.close();
+        }
+    }
+
+    private void read(Options options) throws Exception {
+        String folder = options.required(0, "folder");
+        long uid = options.longValue(1, "uid");
+        EmailReceiver receiver = new EmailReceiver(email, password);
+        try {
+            EmailReceiver.EmailContent content = receiver.fetchEmailByUid(folder, uid);
+            if (content == null) throw new IllegalStateException("This message no longer exists on the server.");
+            out.println(options.flag("html") ? content.htmlBody : toText(content.htmlBody));
+            for (int i = 0; i < content.attachmentNames.size(); i++) {
+                long size = i < content.attachmentSizes.size() ? content.attachmentSizes.get(i) : -1;
+                out.println("Attachment: " + content.attachmentNames.get(i) + (size >= 0 ? " (" + size + " bytes)" : ""));
+            }
+        } finally {
+            receiver.close();
+        }
+    }
+
+    private void download(Options options) throws Exception {
+        String folder = options.required(0, "folder");
+        long uid = options.longValue(1, "uid");
+        String name = options.required(2, "attachment");
+        EmailReceiver receiver = new EmailReceiver(email, password);
+        try {
+            Path saved = receiver.downloadAttachmentByUid(folder, uid, name, null, null);
+            out.println(saved);
+        } finally {
+            receiver.close();
+        }
+    }
+
+    // Logs in to every account and pages through the merged folder
+    private void unified(Options options) throws Exception {
+        String folder = options.positional(0, "INBOX");
+        int count = options.intValue("count", 20);
+        int offset = options.intValue("offset", 0);
+        AccountManager manager = new AccountManager();
+        try {
+            for (Map.Entry<String, String> entry : loadAccounts().entrySet()) {
+                try {
+                    manager.add(entry.getKey(), entry.getValue());
+                } catch (Exception e) {
+                    System.err.println("Skipping " + entry.getKey() + ": " + e.getMessage());
+                }
+            }
+            if (manager.getAccounts().isEmpty()) throw new IllegalStateException("No account could log in.");
+            for (UnifiedInbox.Item item : manager.unifiedInbox(folder).get(offset, count)) {
+                out.print(item.account + "\t");
+                printHeader(item.header);
+            }
+        } finally {
+            manager.close();
+        }
+    }
+
+    // --- SENDING ---
+
+    private void send(Options options) throws Exception {
+        String to = options.required(0, "recipient");
+        String subject = options.required(1, "subject");
+        new EmailSender(email, password).sendEmail(to, subject, body(options), attachments(options));
+        out.println("Sent to " + to);
+    }
+
+    private void bulkSend(Options options) throws Exception {
+        Path csv = Paths.get(options.required(0, "recipients.csv"));
+        String subject = options.required(1, "subject");
+        if (options.value("body-file") == null) throw new IllegalArgumentException("bulk-send needs --body-file");
+        BulkSender.Template template = new BulkSender.Template(subject, body(options), attachments(options));
+        BulkSender.Report report = new BulkSender(new EmailSender(email, password)).send(template, BulkSender.readCsv(csv),
+                result -> {
+                    if (!result.sent) System.err.println("Failed: " + result.recipient + ": " + result.error);
+                });
+        out.println(report);
+        if (report.failed > 0) throw new IllegalStateException(report.failed + " message(s) not sent.");
+    }
+
+    private static String body(Options options) throws IOException {
+        String file = options.value("body-file");
+        if (file != null) return Files.readString(Paths.get(file), StandardCharsets.UTF_8);
+        String text = options.value("body");
+        return text != null ? text : "";
+    }
+
+    private static List<File> attachments(Options options) {
+        List<File> files = new ArrayList<>();
+        for (String path : options.values("attach")) {
+            File file = new File(path);
+            if (!file.isFile()) throw new IllegalArgumentException("No such file: " + path);
+            files.add(file);
+        }
+        return files;
+    }
+
+    // --- DAEMON ---
+
+    // Catches the cache up once, then follows each folder with IDLE (or polling)
+    // until the process is stopped. Changes are printed one per line.
+    private void sync(Options options) throws Exception {
+        List<String> folders = options.positionals().isEmpty() ? List.of("INBOX") : options.positionals();
+        int count = options.intValue("count", 200);
+        EmailReceiver receiver = new EmailReceiver(email, password);
+        List<MailboxWatcher> watchers = new ArrayList<>();
+        CountDownLatch stopped = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            watchers.forEach(MailboxWatcher::stop);
+            receiver.close();
+            stopped.countDown();
+        }, "sync-shutdown"));
+
+        receiver.validateLogin();
+        for (String folder : folders) {
+            FolderSync.Result caughtUp = receiver.syncFolder(folder);
+            int fetched = receiver.getEmailHeaders(folder, 0, count).size();
+            out.println("SYNCED\t" + folder + "\t" + fetched + "\t" + caughtUp);
+            watchers.add(receiver.watchFolder(folder, event -> printEvent(folder, event)));
+        }
+        out.flush();
+        stopped.await();
+    }
+
+    private synchronized void printEvent(String folder, MailboxWatcher.Event event) {
+        out.print(event.type + "\t" + folder + "\t");
+        if (event.header != null) printHeader(event.header);
+        else out.println(event.uid);
+        out.flush();
+    }
+
+    // --- OUTPUT ---
+
+    private void printHeader(EmailReceiver.EmailHeader header) {
+        String date;
+        synchronized (DATE_FORMAT) {
+            date = header.date != null ? DATE_FORMAT.format(header.date) : "";
+        }
+        out.println(header.uid + "\t" + date + "\t" + (header.seen ? "" : "*") + "\t" + clean(header.from) + "\t" + clean(header.subject));
+    }
+
+    // One record per line, whatever the sender put in the header
+    private static String clean(String value) {
+        return value == null ? "" : value.replaceAll("[\\t\\r\\n]+", " ");
+    }
+
+    // Enough to read a message in a terminal; --html gives the real thing
+    static String toText(String html) {
+        if (html == null) return "";
+        String text = html.replaceAll("(?is)<(script|style)\\b.*?</\\1\\s*>", "")
+                .replaceAll("(?i)<br\\s*/?>|</p>|</div>|</h\\d>|</tr>|<hr\\s*/?>", "\n")
+                .replaceAll("<[^>]+>", "")
+                .replace("&nbsp;", " ").replace("&lt;", "<").replace("&gt;", ">")
+                .replace("&quot;", "\"").replace("&#39;", "'").replace("&amp;", "&");
+        return text.replaceAll("[ \\t]+\\n", "\n").replaceAll("\\n{3,}", "\n\n").trim();
+    }
+
+    // --- SETUP ---
+
+    private static String[] loadAccount() {
+        String email = System.getenv("GOLDEN_EMAIL");
+        String password = System.getenv("GOLDEN_PASSWORD");
+        if (email != null && password != null) return new String[] { email, password };
+        try (InputStream input = new FileInputStream(CONFIG_FILE)) {
+            Properties prop = new Properties();
+            prop.load(input);
+            email = prop.getProperty("email");
+            password = prop.getProperty("password");
+        } catch (IOException ex) {}
+        return email != null && password != null ? new String[] { email, password } : null;
+    }
+
+    private static Map<String, String> loadAccounts() {
+        Map<String, String> accounts = new LinkedHashMap<>();
+        String file = System.getenv().getOrDefault("GOLDEN_ACCOUNTS", ACCOUNTS_FILE);
+        try (InputStream input = new FileInputStream(file)) {
+            Properties prop = new Properties();
+            prop.load(input);
+            for (String email : new TreeSet<>(prop.stringPropertyNames())) accounts.put(email, prop.getProperty(email));
+        } catch (IOException ex) {}
+        String[] single = loadAccount();
+        if (accounts.isEmpty() && single != null) accounts.put(single[0], single[1]);
+        return accounts;
+    }
+
+    private static void usage(PrintStream out) {
+        out.println("Usage: java -jar GoldenEmailClient.jar <command> [arguments]");
+        out.println();
+        out.println("  folders");
+        out.println("  headers [folder] [--count N] [--offset N]");
+        out.println("  read <folder> <uid> [--html]");
+        out.println("  download <folder> <uid> <attachment>");
+        out.println("  send <to> <subject> [--body TEXT | --body-file FILE] [--attach FILE]...");
+        out.println("  bulk-send <recipients.csv> <subject> --body-file FILE [--attach FILE]...");
+        out.println("  sync [folder...] [--count N]");
+        out.println("  unified [folder] [--count N] [--offset N]");
+        out.println();
+        out.println("Account: GOLDEN_EMAIL and GOLDEN_PASSWORD, or config.properties saved by the GUI.");
+        out.println("unified: email=password lines in accounts.properties (or the file GOLDEN_ACCOUNTS names).");
+        out.println("Without a command the GUI starts.");
+    }
+
+    // Positional arguments plus --name value options; --attach may repeat
+    static class Options {
+        private static final Set<String> FLAGS = Set.of("html");
+
+        private final List<String> positionals = new ArrayList<>();
+        private final Map<String, List<String>> values = new HashMap<>();
+
+        static Options parse(String[] args) {
+            Options options = new Options();
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (!arg.startsWith("--")) {
+                    options.positionals.add(arg);
+                    continue;
+                }
+                String name = arg.substring(2);
+                if (FLAGS.contains(name)) {
+                    options.values.computeIfAbsent(name, n -> new ArrayList<>()).add("true");
+                } else if (i + 1 < args.length) {
+                    options.values.computeIfAbsent(name, n -> new ArrayList<>()).add(args[++i]);
+                } else {
+                    throw new IllegalArgumentException("Missing value for " + arg);
+                }
+            }
+            return options;
+        }
+
+        List<String> positionals() { return positionals; }
+
+        String positional(int index, String fallback) {
+            return index < positionals.size() ? positionals.get(index) : fallback;
+        }
+
+        String required(int index, String name) {
+            String value = positional(index, null);
+            if (value == null) throw new IllegalArgumentException("Missing <" + name + ">");
+            return value;
+        }
+
+        long longValue(int index, String name) {
+            String value = required(index, name);
+            try {
+                return Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Not a number for <" + name + ">: " + value);
+            }
+        }
+
+        boolean flag(String name) { return values.containsKey(name); }
+
+        String value(String name) {
+            List<String> list = values.get(name);
+            return list == null ? null : list.get(list.size() - 1);
+        }
+
+        List<String> values(String name) { return values.getOrDefault(name, List.of()); }
+
+        int intValue(String name, int fallback) {
+            String value = value(name);
+            if (value == null) return fallback;
+            try {
+                return Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Not a number for --" + name + ": " + value);
+            }
+        }
+    }
+}
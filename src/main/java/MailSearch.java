@@ -0,0 +1,124 @@
+import jakarta.mail.Flags;
+import jakarta.mail.Message;
+import jakarta.mail.search.*;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// What to look for on the server. Turned into an IMAP SEARCH by toTerm(); setters chain:
+//   new MailSearch().from("alice").since(date).unseenOnly()
+// or parsed from the search field, Gmail style:
+//   from:alice subject:"q3 report" is:unread larger:5M after:2024-01-31 invoice
+public class MailSearch {
+    private static final Pattern TOKEN = Pattern.compile("(\\w+):(\"[^\"]*\"|\\S+)|\"([^\"]*)\"|(\\S+)");
+
+    private String from;
+    private String to;
+    private String subject;
+    private final List<String> words = new ArrayList<>(); // anywhere: subject, sender or body
+    private Date since;
+    private Date before;
+    private boolean unseenOnly;
+    private boolean flaggedOnly;
+    private long largerThan = -1;
+    private long smallerThan = -1;
+
+    public MailSearch from(String value) { from = value; return this; }
+    public MailSearch to(String value) { to = value; return this; }
+    public MailSearch subject(String value) { subject = value; return this; }
+    public MailSearch text(String value) { words.add(value); return this; }
+    public MailSearch since(Date value) { since = value; return this; }
+    public MailSearch before(Date value) { before = value; return this; }
+    public MailSearch unseenOnly() { unseenOnly = true; return this; }
+    public MailSearch flaggedOnly() { flaggedOnly = true; return this; }
+    public MailSearch largerThan(long bytes) { largerThan = bytes; return this; }
+    public MailSearch smallerThan(long bytes) { smallerThan = bytes; return this; }
+
+    public boolean isEmpty() { return toTerm() == null; }
+
+    // Plain words only: the local index can answer it too
+    public boolean isTextOnly() {
+        return !words.isEmpty() && from == null && to == null && subject == null && since == null && before == null
+                && !unseenOnly && !flaggedOnly && largerThan < 0 && smallerThan < 0;
+    }
+
+    public String getText() { return String.join(" ", words); }
+
+    // null when nothing was asked for
+    public SearchTerm toTerm() {
+        List<SearchTerm> terms = new ArrayList<>();
+        if (from != null) terms.add(new FromStringTerm(from));
+        if (to != null) terms.add(new RecipientStringTerm(Message.RecipientType.TO, to));
+        if (subject != null) terms.add(new SubjectTerm(subject));
+        for (String word : words) {
+            terms.add(new OrTerm(new SearchTerm[] { new SubjectTerm(word), new FromStringTerm(word), new BodyTerm(word) }));
+        }
+        if (since != null) terms.add(new ReceivedDateTerm(ComparisonTerm.GE, since));
+        if (before != null) terms.add(new ReceivedDateTerm(ComparisonTerm.LT, before));
+        if (unseenOnly) terms.add(new FlagTerm(new Flags(Flags.Flag.SEEN), false));
+        if (flaggedOnly) terms.add(new FlagTerm(new Flags(Flags.Flag.FLAGGED), true));
+        if (largerThan >= 0) terms.add(new SizeTerm(ComparisonTerm.GT, (int) Math.min(Integer.MAX_VALUE, largerThan)));
+        if (smallerThan >= 0) terms.add(new SizeTerm(ComparisonTerm.LT, (int) Math.min(Integer.MAX_VALUE, smallerThan)));
+        if (terms.isEmpty()) return null;
+        return terms.size() == 1 ? terms.get(0) : new AndTerm(terms.toArray(new SearchTerm[0]));
+    }
+
+    // Unknown operators and values that don't parse are searched for as plain text
+    public static MailSearch parse(String query) {
+        MailSearch search = new MailSearch();
+        if (query == null) return search;
+        Matcher m = TOKEN.matcher(query);
+        while (m.find()) {
+            if (m.group(3) != null) {
+                if (!m.group(3).isBlank()) search.text(m.group(3));
+                continue;
+            }
+            if (m.group(4) != null) {
+                search.text(m.group(4));
+                continue;
+            }
+            String key = m.group(1).toLowerCase();
+            String value = m.group(2).replace("\"", "");
+            try {
+                switch (key) {
+                    case "from" -> search.from(value);
+                    case "to" -> search.to(value);
+                    case "subject" -> search.subject(value);
+                    case "after", "since" -> search.since(parseDate(value));
+                    case "before" -> search.before(parseDate(value));
+                    case "larger" -> search.largerThan(parseSize(value));
+                    case "smaller" -> search.smallerThan(parseSize(value));
+                    case "is" -> {
+                        if (value.equalsIgnoreCase("unread")) search.unseenOnly();
+                        else if (value.equalsIgnoreCase("starred") || value.equalsIgnoreCase("flagged")) search.flaggedOnly();
+                        else search.text(m.group());
+                    }
+                    default -> search.text(m.group());
+                }
+            } catch (ParseException | NumberFormatException e) {
+                search.text(m.group());
+            }
+        }
+        return search;
+    }
+
+    private static Date parseDate(String value) throws ParseException {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd", Locale.ROOT);
+        format.setLenient(false);
+        return format.parse(value);
+    }
+
+    // 500, 20K, 5M
+    private static long parseSize(String value) {
+        String v = value.trim().toUpperCase();
+        long unit = 1;
+        if (v.endsWith("K") || v.endsWith("KB")) unit = 1024;
+        else if (v.endsWith("M") || v.endsWith("MB")) unit = 1024 * 1024;
+        return Long.parseLong(v.replaceAll("[KMB]+$", "")) * unit;
+    }
+}
@@ -0,0 +1,199 @@
+import jakarta.mail.*;
+import jakarta.mail.event.MessageChangedEvent;
+import jakarta.mail.event.MessageChangedListener;
+import jakarta.mail.event.MessageCountEvent;
+import jakarta.mail.event.MessageCountListener;
+import org.eclipse.angus.mail.imap.IMAPFolder;
+import org.eclipse.angus.mail.imap.IMAPStore;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// Push updates for one folder: IMAP IDLE when the server has it, NOOP polling otherwise.
+// Changes arrive as small events so the screen can patch its list instead of re-listing.
+public class MailboxWatcher {
+
+    public static class Event {
+        public enum Type { ADDED, EXPUNGED, FLAGS_CHANGED }
+        Type type;
+        long uid;                          // -1 if an expunged message was never tracked
+        EmailReceiver.EmailHeader header;  // set for ADDED and FLAGS_CHANGED
+
+        Event(Type type, long uid, EmailReceiver.EmailHeader header) {
+            this.type = type; this.uid = uid; this.header = header;
+        }
+    }
+
+    private static final int TRACKED_MESSAGES = 1000;          // newest messages whose UIDs we know up front
+    private static final long KEEPALIVE_MILLIS = 9 * 60 * 1000; // re-issue IDLE before servers/NATs drop it
+    private static final ScheduledExecutorService KEEPALIVE = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "mailbox-keepalive");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final Callable<Store> storeSupplier; // opens a new connection owned by the watcher
+    private final String folderName;
+    private final MessageCache.FolderData local;
+    private final Consumer<Event> listener;
+    private final long pollMillis;
+    private volatile boolean running = true;
+    private volatile Store store;
+    private volatile Folder folder;
+    private Thread worker;
+    private boolean reconnecting; // worker thread only; set once the folder has been open
+    private int failures;         // worker thread only; failed attempts since the folder was last open
+
+    MailboxWatcher(Callable<Store> storeSupplier, String folderName, MessageCache.FolderData local,
+                   long pollMillis, Consumer<Event> listener) {
+        this.storeSupplier = storeSupplier;
+        this.folderName = folderName;
+        this.local = local;
+        this.pollMillis = pollMillis;
+        this.listener = listener;
+    }
+
+    public String getFolderName() { return folderName; }
+
+    void start() {
+        worker = new Thread(this::run, "mailbox-watcher-" + folderName);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    public void stop() {
+        running = false;
+        if (worker != null) worker.interrupt();
+        closeConnection();
+    }
+
+    private void closeConnection() {
+        Folder currentFolder = folder;
+        if (currentFolder != null && currentFolder.isOpen()) {
+            try { currentFolder.close(false); } catch (Exception ignored) {}
+        }
+        Store currentStore = store;
+        if (currentStore != null) {
+            try { currentStore.close(); } catch (Exception ignored) {}
+        }
+    }
+
+    private void run() {
+        while (running) {
+            ScheduledFuture<?> keepalive = null;
+            try {
+                store = storeSupplier.call();
+                boolean idle = store instanceof IMAPStore && ((IMAPStore) store).hasCapability("IDLE");
+                openFolder(store);
+                failures = 0;
+                if (idle) {
+                    // Any command on the folder ends the current IDLE; the loop below starts a new one
+                    keepalive = KEEPALIVE.scheduleWithFixedDelay(this::ping, KEEPALIVE_MILLIS, KEEPALIVE_MILLIS, TimeUnit.MILLISECONDS);
+                }
+                while (running && folder.isOpen()) {
+                    if (idle) {
+                        ((IMAPFolder) folder).idle(true); // returns once the server reports something
+                    } else {
+                        Thread.sleep(pollMillis);
+                        folder.getMessageCount(); // NOOP: the server answers with EXISTS/EXPUNGE/FETCH updates
+                    }
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                if (!running) return;
+                e.printStackTrace();
+                // Jittered and doubling, so a long outage doesn't mean a login attempt every few seconds
+                try { ConnectionSupervisor.pause(++failures, "imap.watch.reconnect", e); } catch (InterruptedException ie) { return; }
+            } finally {
+                if (keepalive != null) keepalive.cancel(false);
+                closeConnection();
+            }
+        }
+    }
+
+    private void ping() {
+        Folder current = folder;
+        try {
+            if (current != null && current.isOpen()) current.getMessageCount();
+        } catch (Exception ignored) {} // the IDLE loop notices a dead connection itself
+    }
+
+    // Separate Folder object on purpose: IDLE ties up its connection, the shared
+    // open folders used for reading must stay free.
+    // Opening also catches the cache up on what changed while nobody was watching.
+    // After a reconnect those changes are reported like live ones; the first time,
+    // the screen has just listed the folder and already shows the current state.
+    private void openFolder(Store store) throws MessagingException {
+        IMAPFolder opened = (IMAPFolder) store.getFolder(folderName);
+        FolderSync.Result missed = FolderSync.open(opened, local);
+        folder = opened;
+        UIDFolder uidFolder = opened;
+        if (reconnecting) {
+            for (long uid : missed.vanished) listener.accept(new Event(Event.Type.EXPUNGED, uid, null));
+            for (EmailReceiver.EmailHeader header : missed.changed) listener.accept(new Event(Event.Type.FLAGS_CHANGED, header.uid, header));
+        }
+        reconnecting = true;
+
+        // Expunged messages can't be asked for their UID any more, so learn them now
+        int total = opened.getMessageCount();
+        if (total > 0) {
+            FetchProfile uids = new FetchProfile();
+            uids.add(UIDFolder.FetchProfileItem.UID);
+            opened.fetch(opened.getMessages(Math.max(1, total - TRACKED_MESSAGES + 1), total), uids);
+        }
+
+        opened.addMessageCountListener(new MessageCountListener() {
+            @Override public void messagesAdded(MessageCountEvent e) {
+                try {
+                    // Oldest first, so a listener that prepends ends up with the newest on top
+                    List<EmailReceiver.EmailHeader> added = EmailReceiver.fetchHeaders(opened, e.getMessages(), local);
+                    for (int i = added.size() - 1; i >= 0; i--) {
+                        listener.accept(new Event(Event.Type.ADDED, added.get(i).uid, added.get(i)));
+                    }
+                } catch (MessagingException ex) { ex.printStackTrace(); }
+            }
+
+            @Override public void messagesRemoved(MessageCountEvent e) {
+                for (Message msg : e.getMessages()) {
+                    long uid = knownUid(uidFolder, msg);
+                    if (uid > 0) local.remove(uid);
+                    listener.accept(new Event(Event.Type.EXPUNGED, uid, null));
+                }
+            }
+        });
+
+        opened.addMessageChangedListener(new MessageChangedListener() {
+            @Override public void messageChanged(MessageChangedEvent e) {
+                if (e.getMessageChangeType() != MessageChangedEvent.FLAGS_CHANGED) return;
+                try {
+                    Message msg = e.getMessage();
+                    long uid = uidFolder.getUID(msg);
+                    EmailReceiver.EmailHeader header = local.getHeader(uid);
+                    if (header == null) {
+                        List<EmailReceiver.EmailHeader> fetched = EmailReceiver.fetchHeaders(opened, new Message[] { msg }, local);
+                        if (fetched.isEmpty()) return;
+                        header = fetched.get(0);
+                    } else {
+                        header.seen = msg.isSet(Flags.Flag.SEEN);
+                        local.putHeader(header);
+                    }
+                    listener.accept(new Event(Event.Type.FLAGS_CHANGED, uid, header));
+                } catch (MessagingException ex) { ex.printStackTrace(); }
+            }
+        });
+    }
+
+    private static long knownUid(UIDFolder folder, Message msg) {
+        try {
+            return folder.getUID(msg); // served from the message when fetched before the expunge
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+}
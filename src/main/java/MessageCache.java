@@ -0,0 +1,456 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Local copy of headers and bodies so the inbox can paint without the network.
+// Each folder gets an append-only log of records plus an index (uid -> offsets).
+// Everything is keyed by UID and only valid for the folder's current UIDVALIDITY.
+public class MessageCache {
+    private static final int FORMAT_VERSION = 2;
+    private static final byte HEADER = 1;
+    private static final byte BODY = 2;
+    private static final byte REMOVED = 3;
+    private static final byte BODY_DROPPED = 4;
+    private static final int RECORD_OVERHEAD = 4 + 1 + 8; // length + type + uid
+    private static final int INDEX_EVERY = 500;           // appends between index snapshots
+    private static final int COMPACT_AFTER = 1000;        // stale records, and more of them than live ones
+    private static final int INDEX_MAGIC = 0x47495832;    // "GIX2": index.bin carries the stale count
+
+    private static final Map<Path, MessageCache> OPEN_CACHES = new ConcurrentHashMap<>();
+
+    private final Path root;
+    private final Map<String, FolderData> folders = new HashMap<>();
+
+    private MessageCache(Path root) {
+        this.root = root;
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flush));
+    }
+
+    // One instance per directory, two writers on the same log would corrupt it
+    public static MessageCache forAccount(String email) {
+        return OPEN_CACHES.computeIfAbsent(AppPaths.accountDir(email).resolve("cache"), MessageCache::new);
+    }
+
+    public synchronized FolderData folder(String folderName) {
+        return folders.computeIfAbsent(folderName, name -> new FolderData(root.resolve(AppPaths.safeName(name))));
+    }
+
+    public synchronized List<String> loadFolderList() {
+        Path file = root.resolve("folders.txt");
+        try {
+            if (Files.exists(file)) return Files.readAllLines(file, StandardCharsets.UTF_8);
+        } catch (IOException e) { e.printStackTrace(); }
+        return new ArrayList<>();
+    }
+
+    public synchronized void saveFolderList(List<String> folderNames) {
+        try {
+            Files.createDirectories(root);
+            Files.write(root.resolve("folders.txt"), folderNames, StandardCharsets.UTF_8);
+        } catch (IOException e) { e.printStackTrace(); }
+    }
+
+    public synchronized void flush() {
+        for (FolderData data : folders.values()) {
+            data.flush();
+            data.search.flush();
+        }
+    }
+
+    // --- ONE FOLDER ON DISK ---
+    // messages.log : [int length][byte type][long uid][payload] records, only ever appended
+    // index.bin    : snapshot of the in-memory index, how much of the log it covers and how many
+    //                records in that part are stale (superseded or removed)
+    // meta.properties : format version, UIDVALIDITY and, on CONDSTORE servers, the HIGHESTMODSEQ synced to
+    // search/         : full-text index over the cached headers and bodies (see SearchIndex)
+    public static class FolderData {
+        private final Path dir;
+        private final SearchIndex search;
+        private final TreeMap<Long, long[]> index = new TreeMap<>(); // uid -> {header offset, body offset}
+        private final Properties meta = new Properties();
+        private RandomAccessFile log;
+        private int appendsSinceIndex;
+        private int staleRecords;
+
+        FolderData(Path dir) {
+            this.dir = dir;
+            try {
+                open();
+            } catch (IOException e) {
+                e.printStackTrace();
+                wipe();
+            }
+            search = new SearchIndex(dir.resolve("search"));
+            SearchIndex.BACKGROUND.execute(this::indexMissing);
+        }
+
+        // Indexes whatever is cached but not in the search index yet: everything on the
+        // first run, or what the index had only in memory when the app last stopped
+        private void indexMissing() {
+            List<Long> uids;
+            synchronized (this) { uids = new ArrayList<>(index.keySet()); }
+            for (long uid : uids) {
+                if (!search.hasHeader(uid)) {
+                    EmailReceiver.EmailHeader header = getHeader(uid);
+                    if (header != null) search.addHeader(uid, header.subject, header.from);
+                }
+                if (!search.hasBody(uid)) {
+                    EmailReceiver.EmailContent content = getContent(uid);
+                    if (content != null) search.addBody(uid, content.htmlBody);
+                }
+            }
+        }
+
+        public SearchIndex search() { return search; }
+
+        private void open() throws IOException {
+            Files.createDirectories(dir);
+            Path metaFile = dir.resolve("meta.properties");
+            if (Files.exists(metaFile)) {
+                try (InputStream in = Files.newInputStream(metaFile)) { meta.load(in); }
+            }
+            if (!String.valueOf(FORMAT_VERSION).equals(meta.getProperty("version"))) {
+                wipe();
+                return;
+            }
+            log = new RandomAccessFile(dir.resolve("messages.log").toFile(), "rw");
+            long covered = readIndex();
+            if (covered > log.length()) {
+                index.clear();
+                covered = 0;
+            }
+            replay(covered);
+            if (needsCompaction()) compact();
+        }
+
+        // Every flag change appends a whole header record, so the log is also
+        // checked as it grows, not only when the folder is opened
+        private boolean needsCompaction() {
+            return staleRecords > COMPACT_AFTER && staleRecords > index.size();
+        }
+
+        // Start from nothing: used for format changes, corruption and UIDVALIDITY changes
+        private void wipe() {
+            try {
+                if (log != null) log.close();
+                log = null;
+                index.clear();
+                staleRecords = 0;
+                Files.createDirectories(dir);
+                Files.deleteIfExists(dir.resolve("messages.log"));
+                Files.deleteIfExists(dir.resolve("index.bin"));
+                String uidValidity = meta.getProperty("uidvalidity");
+                meta.clear();
+                meta.setProperty("version", String.valueOf(FORMAT_VERSION));
+                if (uidValidity != null) meta.setProperty("uidvalidity", uidValidity);
+                writeMeta();
+                log = new RandomAccessFile(dir.resolve("messages.log").toFile(), "rw");
+            } catch (IOException e) {
+                e.printStackTrace();
+                log = null; // cache disabled for this folder, callers just miss
+            }
+        }
+
+        private void writeMeta() throws IOException {
+            try (OutputStream out = Files.newOutputStream(dir.resolve("meta.properties"))) { meta.store(out, null); }
+        }
+
+        private long readIndex() {
+            Path file = dir.resolve("index.bin");
+            if (!Files.exists(file)) return 0;
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                if (in.readInt() != INDEX_MAGIC) return 0; // older snapshot: replaying the whole log recounts
+                long covered = in.readLong();
+                int stale = in.readInt();
+                int size = in.readInt();
+                for (int i = 0; i < size; i++) index.put(in.readLong(), new long[] { in.readLong(), in.readLong() });
+                staleRecords = stale;
+                return covered;
+            } catch (IOException e) {
+                index.clear();
+                return 0;
+            }
+        }
+
+        // Re-applies the tail of the log that the index snapshot has not seen yet.
+        // A torn record at the end (crash mid-append) is cut off.
+        private void replay(long from) throws IOException {
+            long length = log.length();
+            long pos = from;
+            while (pos + RECORD_OVERHEAD <= length) {
+                log.seek(pos);
+                int payload = log.readInt();
+                byte type = log.readByte();
+                long uid = log.readLong();
+                if (payload < 0 || pos + RECORD_OVERHEAD + payload > length) break;
+                apply(type, uid, pos);
+                pos += RECORD_OVERHEAD + payload;
+            }
+            if (pos < length) log.setLength(pos);
+        }
+
+        private void apply(byte type, long uid, long offset) {
+            if (type == REMOVED) {
+                if (index.remove(uid) != null) staleRecords++;
+                return;
+            }
+            if (type == BODY_DROPPED) {
+                long[] entry = index.get(uid);
+                if (entry == null || entry[1] < 0) return;
+                entry[1] = -1;
+                staleRecords++;
+                if (entry[0] < 0) index.remove(uid);
+                return;
+            }
+            long[] entry = index.computeIfAbsent(uid, k -> new long[] { -1, -1 });
+            int slot = type == HEADER ? 0 : 1;
+            if (entry[slot] >= 0) staleRecords++;
+            entry[slot] = offset;
+        }
+
+        private void append(byte type, long uid, byte[] payload) throws IOException {
+            long offset = log.length();
+            log.seek(offset);
+            ByteArrayOutputStream record = new ByteArrayOutputStream(RECORD_OVERHEAD + payload.length);
+            DataOutputStream out = new DataOutputStream(record);
+            out.writeInt(payload.length);
+            out.writeByte(type);
+            out.writeLong(uid);
+            out.write(payload);
+            log.write(record.toByteArray());
+            apply(type, uid, offset);
+            appendsSinceIndex++;
+            if (needsCompaction()) compact();
+            else if (appendsSinceIndex >= INDEX_EVERY) flush();
+        }
+
+        private DataInputStream readRecord(long offset) throws IOException {
+            log.seek(offset);
+            int payload = log.readInt();
+            log.skipBytes(1 + 8);
+            byte[] bytes = new byte[payload];
+            log.readFully(bytes);
+            return new DataInputStream(new ByteArrayInputStream(bytes));
+        }
+
+        // Rewrites the log with only the live records
+        private void compact() throws IOException {
+            Path tmp = dir.resolve("messages.log.tmp");
+            TreeMap<Long, long[]> compacted = new TreeMap<>();
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                long pos = 0;
+                for (Map.Entry<Long, long[]> e : index.entrySet()) {
+                    long[] offsets = { -1, -1 };
+                    for (int slot = 0; slot < 2; slot++) {
+                        long offset = e.getValue()[slot];
+                        if (offset < 0) continue;
+                        log.seek(offset);
+                        int payload = log.readInt();
+                        byte[] record = new byte[RECORD_OVERHEAD + payload];
+                        log.seek(offset);
+                        log.readFully(record);
+                        out.write(record);
+                        offsets[slot] = pos;
+                        pos += record.length;
+                    }
+                    compacted.put(e.getKey(), offsets);
+                }
+            }
+            log.close();
+            try {
+                Files.deleteIfExists(dir.resolve("index.bin")); // a crash from here on replays the new log from 0
+                Files.move(tmp, dir.resolve("messages.log"), StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                log = new RandomAccessFile(dir.resolve("messages.log").toFile(), "rw"); // the old log if the move failed
+            }
+            index.clear();
+            index.putAll(compacted);
+            staleRecords = 0;
+            writeIndex(); // every offset moved: the old snapshot must not outlive the old log
+        }
+
+        public synchronized void flush() {
+            if (log == null || appendsSinceIndex == 0 && Files.exists(dir.resolve("index.bin"))) return;
+            writeIndex();
+        }
+
+        private void writeIndex() {
+            Path tmp = dir.resolve("index.bin.tmp");
+            try {
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                    out.writeInt(INDEX_MAGIC);
+                    out.writeLong(log.length());
+                    out.writeInt(staleRecords);
+                    out.writeInt(index.size());
+                    for (Map.Entry<Long, long[]> e : index.entrySet()) {
+                        out.writeLong(e.getKey());
+                        out.writeLong(e.getValue()[0]);
+                        out.writeLong(e.getValue()[1]);
+                    }
+                }
+                Files.move(tmp, dir.resolve("index.bin"), StandardCopyOption.REPLACE_EXISTING);
+                appendsSinceIndex = 0;
+            } catch (IOException e) { e.printStackTrace(); }
+        }
+
+        // Returns false (and drops everything) when the server's UIDVALIDITY no longer matches
+        public synchronized boolean validate(long uidValidity) {
+            String known = meta.getProperty("uidvalidity");
+            if (known != null && Long.parseLong(known) == uidValidity) return true;
+            meta.setProperty("uidvalidity", String.valueOf(uidValidity));
+            if (known == null) {
+                try { writeMeta(); } catch (IOException e) { e.printStackTrace(); }
+                return true;
+            }
+            wipe();
+            search.clear();
+            return false;
+        }
+
+        public synchronized int size() { return index.size(); }
+
+        public synchronized long uidValidity() {
+            String value = meta.getProperty("uidvalidity");
+            return value != null ? Long.parseLong(value) : -1;
+        }
+
+        // The server's HIGHESTMODSEQ the last time flags and expunges were caught up; -1 if never
+        public synchronized long getHighestModSeq() {
+            String value = meta.getProperty("highestmodseq");
+            return value != null ? Long.parseLong(value) : -1;
+        }
+
+        public synchronized void setHighestModSeq(long modSeq) {
+            if (modSeq < 0) meta.remove("highestmodseq");
+            else meta.setProperty("highestmodseq", String.valueOf(modSeq));
+            try { writeMeta(); } catch (IOException e) { e.printStackTrace(); }
+        }
+
+        // Every UID with a cached header, ascending
+        public synchronized long[] uids() {
+            return index.entrySet().stream().filter(e -> e.getValue()[0] >= 0).mapToLong(Map.Entry::getKey).toArray();
+        }
+
+        public synchronized long highestUid() { return index.isEmpty() ? 0 : index.lastKey(); }
+
+        public synchronized EmailReceiver.EmailHeader getHeader(long uid) {
+            long[] entry = index.get(uid);
+            if (log == null || entry == null || entry[0] < 0) return null;
+            try {
+                return decodeHeader(uid, readRecord(entry[0]));
+            } catch (IOException e) { e.printStackTrace(); }
+            return null;
+        }
+
+        // Newest (highest UID) first, the same order the server listing uses
+        public synchronized List<EmailReceiver.EmailHeader> getHeaders(int offset, int count) {
+            List<EmailReceiver.EmailHeader> headers = new ArrayList<>();
+            if (log == null) return headers;
+            int skipped = 0;
+            for (Map.Entry<Long, long[]> e : index.descendingMap().entrySet()) {
+                if (headers.size() >= count) break;
+                if (e.getValue()[0] < 0) continue;
+                if (skipped++ < offset) continue;
+                try {
+                    headers.add(decodeHeader(e.getKey(), readRecord(e.getValue()[0])));
+                } catch (IOException ex) { ex.printStackTrace(); }
+            }
+            return headers;
+        }
+
+        public synchronized void putHeader(EmailReceiver.EmailHeader header) {
+            if (log == null) return;
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(bytes);
+                writeString(out, header.subject);
+                writeString(out, header.from);
+                out.writeLong(header.date != null ? header.date.getTime() : Long.MIN_VALUE);
+                out.writeLong(header.size);
+                out.writeBoolean(header.seen);
+                append(HEADER, header.uid, bytes.toByteArray());
+                if (!search.hasHeader(header.uid)) search.addHeader(header.uid, header.subject, header.from);
+            } catch (IOException e) { e.printStackTrace(); }
+        }
+
+        public synchronized EmailReceiver.EmailContent getContent(long uid) {
+            long[] entry = index.get(uid);
+            if (log == null || entry == null || entry[1] < 0) return null;
+            try {
+                DataInputStream in = readRecord(entry[1]);
+                EmailReceiver.EmailContent content = new EmailReceiver.EmailContent();
+                content.htmlBody = readString(in);
+                int attachments = in.readInt();
+                for (int i = 0; i < attachments; i++) {
+                    content.attachmentNames.add(readString(in));
+                    content.attachmentSizes.add(in.readLong());
+                }
+                return content;
+            } catch (IOException e) { e.printStackTrace(); }
+            return null;
+        }
+
+        public synchronized void putContent(long uid, EmailReceiver.EmailContent content) {
+            if (log == null) return;
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(bytes);
+                writeString(out, content.htmlBody);
+                out.writeInt(content.attachmentNames.size());
+                for (int i = 0; i < content.attachmentNames.size(); i++) {
+                    writeString(out, content.attachmentNames.get(i));
+                    out.writeLong(i < content.attachmentSizes.size() ? content.attachmentSizes.get(i) : -1);
+                }
+                append(BODY, uid, bytes.toByteArray());
+                search.addBody(uid, content.htmlBody);
+            } catch (IOException e) { e.printStackTrace(); }
+        }
+
+        // Forgets the body only; the header stays listed and the message stays searchable
+        public synchronized void dropContent(long uid) {
+            long[] entry = index.get(uid);
+            if (log == null || entry == null || entry[1] < 0) return;
+            try {
+                append(BODY_DROPPED, uid, new byte[0]);
+            } catch (IOException e) { e.printStackTrace(); }
+        }
+
+        public synchronized void remove(long uid) {
+            if (log == null || !index.containsKey(uid)) return;
+            try {
+                append(REMOVED, uid, new byte[0]);
+                search.remove(uid);
+            } catch (IOException e) { e.printStackTrace(); }
+        }
+
+        private static EmailReceiver.EmailHeader decodeHeader(long uid, DataInputStream in) throws IOException {
+            EmailReceiver.EmailHeader header = new EmailReceiver.EmailHeader();
+            header.uid = uid;
+            header.subject = readString(in);
+            header.from = readString(in);
+            long date = in.readLong();
+            header.date = date != Long.MIN_VALUE ? new Date(date) : null;
+            header.size = in.readLong();
+            header.seen = in.readBoolean();
+            return header;
+        }
+    }
+
+    // writeUTF caps out at 64K, message bodies do not
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) { out.writeInt(-1); return; }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) return null;
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
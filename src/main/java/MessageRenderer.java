@@ -0,0 +1,142 @@
+import jakarta.mail.Message;
+import jakarta.mail.Multipart;
+import jakarta.mail.Part;
+import jakarta.mail.internet.MimePart;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Builds the reading-pane HTML from the message structure. On IMAP the structure
+// comes from BODYSTRUCTURE, so only the text section that is actually shown is
+// fetched: one alternative per multipart/alternative, attachments are listed from
+// the structure alone, and inline cid: images are left for the WebView to request.
+public class MessageRenderer {
+    private static final Pattern CID = Pattern.compile("(?i)cid:([^\"'\\s)>]+)");
+
+    private final String partUrlPrefix;
+    private final EmailReceiver.EmailContent content;
+    private final StringBuilder html = new StringBuilder();
+    private final Map<String, String> inlineSections = new HashMap<>(); // Content-ID -> section
+
+    private MessageRenderer(String partUrlPrefix, EmailReceiver.EmailContent content) {
+        this.partUrlPrefix = partUrlPrefix;
+        this.content = content;
+    }
+
+    // partUrlPrefix + section must give a URL that serves that part (see InlinePartHandler)
+    public static void render(Message message, String partUrlPrefix, EmailReceiver.EmailContent content) throws Exception {
+        MessageRenderer renderer = new MessageRenderer(partUrlPrefix, content);
+        renderer.walk(message, "");
+        content.htmlBody = renderer.linkInlineParts(renderer.html.toString());
+    }
+
+    // Finds a part by its IMAP section number ("2", "1.3"); "1" is the body of a single-part message
+    public static Part partAt(Message message, String section) throws Exception {
+        Part part = message;
+        for (String step : section.split("\\.")) {
+            if (!part.isMimeType("multipart/*")) return step.equals("1") && part == message ? message : null;
+            Multipart mp = (Multipart) part.getContent();
+            int index = Integer.parseInt(step) - 1;
+            if (index < 0 || index >= mp.getCount()) return null;
+            part = mp.getBodyPart(index);
+        }
+        return part;
+    }
+
+    private void walk(Part part, String section) throws Exception {
+        if (part.isMimeType("multipart/*")) {
+            Multipart mp = (Multipart) part.getContent();
+            if (part.isMimeType("multipart/alternative")) {
+                int best = chooseAlternative(mp);
+                if (best >= 0) walk(mp.getBodyPart(best), child(section, best));
+            } else if (part.isMimeType("multipart/related")) {
+                // First part is the document, the rest are resources it points at
+                for (int i = 1; i < mp.getCount(); i++) visitResource(mp.getBodyPart(i), child(section, i));
+                if (mp.getCount() > 0) walk(mp.getBodyPart(0), child(section, 0));
+            } else {
+                for (int i = 0; i < mp.getCount(); i++) walk(mp.getBodyPart(i), child(section, i));
+            }
+        } else if (isAttachment(part)) {
+            addAttachment(part);
+        } else if (part.isMimeType("text/html")) {
+            html.append(part.getContent().toString());
+        } else if (part.isMimeType("text/plain")) {
+            html.append("<pre style='white-space: pre-wrap; font-family: inherit;'>")
+                .append(escape(part.getContent().toString()))
+                .append("</pre>");
+        } else {
+            visitResource(part, section.isEmpty() ? "1" : section);
+        }
+    }
+
+    // Inline resources are only remembered; their bytes are fetched when the WebView asks
+    private void visitResource(Part part, String section) throws Exception {
+        String contentId = part instanceof MimePart ? ((MimePart) part).getContentID() : null;
+        if (contentId != null) inlineSections.put(stripBrackets(contentId), section);
+        else if (part.getFileName() != null) addAttachment(part);
+    }
+
+    // The richest alternative we can show, preferring the later one on a tie (RFC 2046)
+    private static int chooseAlternative(Multipart mp) throws Exception {
+        int best = -1;
+        int bestScore = 0;
+        for (int i = 0; i < mp.getCount(); i++) {
+            Part candidate = mp.getBodyPart(i);
+            int score = candidate.isMimeType("multipart/related") ? 3
+                    : candidate.isMimeType("text/html") ? 2
+                    : candidate.isMimeType("text/plain") ? 1
+                    : candidate.isMimeType("multipart/*") ? 1 : 0;
+            if (score > 0 && score >= bestScore) {
+                best = i;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    private static boolean isAttachment(Part part) throws Exception {
+        if (part.getFileName() == null) return false;
+        return Part.ATTACHMENT.equalsIgnoreCase(part.getDisposition()) || !part.isMimeType("text/*");
+    }
+
+    private void addAttachment(Part part) throws Exception {
+        content.attachmentNames.add(part.getFileName());
+        content.attachmentSizes.add(estimatedSize(part));
+    }
+
+    // BODYSTRUCTURE reports the encoded size; base64 grows content by a third
+    private static long estimatedSize(Part part) throws Exception {
+        long size = part.getSize();
+        if (size < 0) return -1;
+        String encoding = part instanceof MimePart ? ((MimePart) part).getEncoding() : null;
+        return "base64".equalsIgnoreCase(encoding) ? size * 3 / 4 : size;
+    }
+
+    private String linkInlineParts(String body) {
+        if (inlineSections.isEmpty()) return body;
+        Matcher m = CID.matcher(body);
+        StringBuilder out = new StringBuilder();
+        while (m.find()) {
+            String section = inlineSections.get(m.group(1));
+            String replacement = section != null ? partUrlPrefix + section : m.group();
+            m.appendReplacement(out, Matcher.quoteReplacement(replacement));
+        }
+        m.appendTail(out);
+        return out.toString();
+    }
+
+    private static String child(String section, int index) {
+        return section.isEmpty() ? String.valueOf(index + 1) : section + "." + (index + 1);
+    }
+
+    private static String stripBrackets(String contentId) {
+        String id = contentId.trim();
+        if (id.startsWith("<") && id.endsWith(">")) id = id.substring(1, id.length() - 1);
+        return id;
+    }
+
+    static String escape(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+}
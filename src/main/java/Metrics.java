@@ -0,0 +1,262 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Where the time goes: named timers (with a latency histogram and, where it
+// applies, bytes moved) and counters, shared by the whole client.
+//
+//   try (Metrics.Sample s = Metrics.start("imap.connect")) {
+//       ...
+//       s.ok();
+//   }
+//
+// Every sample is also a JFR event (golden.Operation) and the counters are sent
+// as a periodic JFR event, so a recording taken with -XX:StartFlightRecording
+// lines up with everything else the JVM records. The same numbers are shown in
+// the diagnostics window and written to metrics.txt in the data dir every minute.
+public class Metrics {
+
+    private static final Map<String, Timer> TIMERS = new ConcurrentHashMap<>();
+    private static final Map<String, LongAdder> COUNTERS = new ConcurrentHashMap<>();
+    private static final long STARTED = System.currentTimeMillis();
+    private static ScheduledExecutorService exporter;
+
+    static {
+        FlightRecorder.addPeriodicEvent(CounterEvent.class, () -> {
+            COUNTERS.forEach((name, value) -> {
+                CounterEvent event = new CounterEvent();
+                event.name = name;
+                event.value = value.sum();
+                event.commit();
+            });
+        });
+    }
+
+    // --- RECORDING ---
+
+    public static Sample start(String operation) {
+        return new Sample(operation);
+    }
+
+    public static void count(String name) {
+        count(name, 1);
+    }
+
+    public static void count(String name, long amount) {
+        COUNTERS.computeIfAbsent(name, n -> new LongAdder()).add(amount);
+    }
+
+    // The counter itself, for hot paths that would otherwise look it up per call
+    public static LongAdder counter(String name) {
+        return COUNTERS.computeIfAbsent(name, n -> new LongAdder());
+    }
+
+    public static long value(String name) {
+        LongAdder counter = COUNTERS.get(name);
+        return counter != null ? counter.sum() : 0;
+    }
+
+    // For durations measured elsewhere, e.g. from a WebView load listener
+    public static void record(String operation, long nanos, long bytes, boolean ok) {
+        TIMERS.computeIfAbsent(operation, n -> new Timer()).record(nanos, bytes, ok);
+    }
+
+    // One timed operation. Counts as failed unless ok() was called before close.
+    public static class Sample implements AutoCloseable {
+        private final String operation;
+        private final long startNanos = System.nanoTime();
+        private final OperationEvent event = new OperationEvent();
+        private long bytes;
+        private boolean ok;
+
+        private Sample(String operation) {
+            this.operation = operation;
+            event.begin();
+        }
+
+        public void bytes(long count) { bytes += count; }
+
+        public void ok() { ok = true; }
+
+        @Override public void close() {
+            record(operation, System.nanoTime() - startNanos, bytes, ok);
+            event.end();
+            if (event.shouldCommit()) {
+                event.operation = operation;
+                event.bytes = bytes;
+                event.ok = ok;
+                event.commit();
+            }
+        }
+    }
+
+    // Latencies go into buckets 8 to each power of two (within 12.5%), so
+    // percentiles cost a fixed 2.6 KB per timer however many samples there are
+    static class Timer {
+        private static final int SUB_BUCKETS = 8;
+        private final AtomicLongArray buckets = new AtomicLongArray(64 * SUB_BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        void record(long nanos, long moved, boolean ok) {
+            nanos = Math.max(1, nanos);
+            buckets.incrementAndGet(bucket(nanos));
+            count.increment();
+            if (!ok) failures.increment();
+            totalNanos.add(nanos);
+            bytes.add(moved);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        private static int bucket(long nanos) {
+            int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+            if (exponent < 3) return (int) nanos;
+            return exponent * SUB_BUCKETS + (int) ((nanos >>> (exponent - 3)) & (SUB_BUCKETS - 1));
+        }
+
+        private static long upperBound(int bucket) {
+            int exponent = bucket / SUB_BUCKETS;
+            if (exponent < 3) return bucket + 1;
+            long base = 1L << exponent;
+            return base + ((bucket % SUB_BUCKETS) + 1) * (base / SUB_BUCKETS);
+        }
+
+        long percentileNanos(double p) {
+            long total = 0;
+            for (int i = 0; i < buckets.length(); i++) total += buckets.get(i);
+            if (total == 0) return 0;
+            long rank = (long) Math.ceil(p * total);
+            long seen = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) return Math.min(upperBound(i), maxNanos.get());
+            }
+            return maxNanos.get();
+        }
+    }
+
+    // --- REPORTING ---
+
+    // One line per timer and counter, sorted by name; key=value so it is easy to grep or parse
+    public static String report() {
+        StringBuilder out = new StringBuilder();
+        out.append("# ").append(Instant.now()).append("  uptime=").append((System.currentTimeMillis() - STARTED) / 1000).append("s\n");
+        for (Map.Entry<String, Timer> e : new TreeMap<>(TIMERS).entrySet()) {
+            Timer t = e.getValue();
+            long n = t.count.sum();
+            if (n == 0) continue;
+            out.append(String.format("%-22s count=%d failed=%d mean=%.1fms p50=%.1fms p95=%.1fms p99=%.1fms max=%.1fms",
+                    e.getKey(), n, t.failures.sum(), t.totalNanos.sum() / 1e6 / n,
+                    t.percentileNanos(0.50) / 1e6, t.percentileNanos(0.95) / 1e6, t.percentileNanos(0.99) / 1e6,
+                    t.maxNanos.get() / 1e6));
+            long moved = t.bytes.sum();
+            if (moved > 0) {
+                double seconds = t.totalNanos.sum() / 1e9;
+                out.append(String.format(" bytes=%d throughput=%.2fMB/s", moved, seconds > 0 ? moved / 1048576.0 / seconds : 0));
+            }
+            out.append('\n');
+        }
+        for (Map.Entry<String, LongAdder> e : new TreeMap<>(COUNTERS).entrySet()) {
+            out.append(String.format("%-22s value=%d%n", e.getKey(), e.getValue().sum()));
+        }
+        appendHitRate(out, "cache.header");
+        appendHitRate(out, "cache.body");
+        appendHitRate(out, "cache.rendered");
+        appendHitRate(out, "prefetch");
+        appendWire(out, "imap", "in");
+        appendWire(out, "smtp", "out");
+        return out.toString();
+    }
+
+    // Bytes on the wire in the direction that carries the mail, against the message
+    // bytes the <protocol>.* timers moved; below 1 means compression paid off
+    private static void appendWire(StringBuilder out, String protocol, String direction) {
+        long wire = value("wire." + protocol + "." + direction);
+        long payload = 0;
+        for (Map.Entry<String, Timer> e : TIMERS.entrySet()) {
+            if (e.getKey().startsWith(protocol + ".")) payload += e.getValue().bytes.sum();
+        }
+        if (wire > 0 && payload > 0) {
+            out.append(String.format("%-22s ratio=%.3f wire=%d payload=%d%n", "wire." + protocol + ".ratio", (double) wire / payload, wire, payload));
+        }
+    }
+
+    // <prefix>.hit and <prefix>.miss counters, as a ratio
+    private static void appendHitRate(StringBuilder out, String prefix) {
+        LongAdder hits = COUNTERS.get(prefix + ".hit");
+        LongAdder misses = COUNTERS.get(prefix + ".miss");
+        long h = hits != null ? hits.sum() : 0;
+        long m = misses != null ? misses.sum() : 0;
+        if (h + m > 0) out.append(String.format("%-22s ratio=%.1f%%%n", prefix + ".hitrate", 100.0 * h / (h + m)));
+    }
+
+    // Rewrites the file with a fresh report every period; the previous one is replaced atomically
+    public static synchronized void startExport(Path file, long periodSeconds) {
+        if (exporter != null || periodSeconds <= 0) return;
+        exporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "metrics-export");
+            t.setDaemon(true);
+            return t;
+        });
+        exporter.scheduleAtFixedRate(() -> {
+            try {
+                Files.createDirectories(file.getParent());
+                Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+                try (Writer out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                    out.write(report());
+                }
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                System.err.println("Metrics: could not write " + file + ": " + e.getMessage());
+            }
+        }, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    // --- JFR EVENTS ---
+
+    @Name("golden.Operation")
+    @Label("Mail Operation")
+    @Category("Golden Email Client")
+    @Description("A timed network, parsing or rendering step")
+    @StackTrace(false)
+    static class OperationEvent extends Event {
+        @Label("Operation") String operation;
+        @Label("Bytes") @DataAmount long bytes;
+        @Label("Succeeded") boolean ok;
+    }
+
+    @Name("golden.Counter")
+    @Label("Mail Counter")
+    @Category("Golden Email Client")
+    @Period("10 s")
+    @StackTrace(false)
+    static class CounterEvent extends Event {
+        @Label("Name") String name;
+        @Label("Value") long value;
+    }
+}
@@ -0,0 +1,120 @@
+import jakarta.mail.Folder;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Store;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// Keeps folders SELECTed between calls, so reading a message is one FETCH
+// instead of SELECT + FETCH + CLOSE. Folders nobody touched for a while are closed.
+public class OpenFolderCache {
+    private static final ScheduledExecutorService REAPER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "open-folder-reaper");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private static class Entry {
+        final Folder folder;
+        long lastUsed;
+        int users;
+        Entry(Folder folder) { this.folder = folder; }
+    }
+
+    private final long idleTimeoutMillis;
+    private final Map<String, Entry> open = new HashMap<>();
+    private final ScheduledFuture<?> reaping;
+
+    public OpenFolderCache(long idleTimeoutMillis) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        long period = Math.max(1000, idleTimeoutMillis / 2);
+        reaping = REAPER.scheduleWithFixedDelay(this::closeIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    // Every acquire must be paired with release, the reaper never closes a folder in use
+    public synchronized Folder acquire(Store store, String folderName) throws MessagingException {
+        Entry entry = open.get(folderName);
+        if (entry != null && entry.users == 0 && (!entry.folder.isOpen() || entry.folder.getStore() != store)) {
+            close(entry.folder);
+            entry = null;
+        }
+        if (entry == null) {
+            Folder folder = store.getFolder(folderName);
+            folder.open(Folder.READ_ONLY);
+            entry = new Entry(folder);
+            open.put(folderName, entry);
+        }
+        entry.users++;
+        entry.lastUsed = System.currentTimeMillis();
+        return entry.folder;
+    }
+
+    public synchronized void release(String folderName) {
+        Entry entry = open.get(folderName);
+        if (entry == null) return;
+        entry.users = Math.max(0, entry.users - 1);
+        entry.lastUsed = System.currentTimeMillis();
+    }
+
+    // Drop a folder after an error (once released) so the next call starts from a fresh SELECT
+    public synchronized void invalidate(String folderName) {
+        Entry entry = open.get(folderName);
+        if (entry != null && entry.users == 0) {
+            open.remove(folderName);
+            close(entry.folder);
+        }
+    }
+
+    public synchronized void closeIdle() {
+        long now = System.currentTimeMillis();
+        for (Iterator<Entry> it = open.values().iterator(); it.hasNext(); ) {
+            Entry entry = it.next();
+            if (entry.users == 0 && now - entry.lastUsed >= idleTimeoutMillis) {
+                close(entry.folder);
+                it.remove();
+            }
+        }
+    }
+
+    // NOOPs the open folders nobody is using: each SELECTed folder has a connection of
+    // its own, which a store NOOP doesn't touch. Dead ones are closed and counted, the
+    // next acquire opens them again. Doesn't count as use, the reaper still closes them.
+    public synchronized int keepAlive() {
+        int dead = 0;
+        for (Iterator<Entry> it = open.values().iterator(); it.hasNext(); ) {
+            Entry entry = it.next();
+            if (entry.users > 0) continue;
+            try {
+                if (entry.folder.isOpen()) {
+                    entry.folder.getMessageCount(); // NOOP when the folder is open
+                    continue;
+                }
+            } catch (MessagingException | IllegalStateException ignored) {}
+            dead++; // failed the NOOP, or already closed by a BYE on its connection
+            close(entry.folder);
+            it.remove();
+        }
+        return dead;
+    }
+
+    public synchronized void closeAll() {
+        for (Entry entry : open.values()) close(entry.folder);
+        open.clear();
+    }
+
+    // For good: also stops the idle reaper for this cache
+    public synchronized void shutdown() {
+        reaping.cancel(false);
+        closeAll();
+    }
+
+    private static void close(Folder folder) {
+        try {
+            if (folder.isOpen()) folder.close(false);
+        } catch (Exception ignored) {}
+    }
+}
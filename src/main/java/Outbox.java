@@ -0,0 +1,385 @@
+import jakarta.mail.MessagingException;
+import jakarta.mail.SendFailedException;
+import jakarta.mail.Session;
+import jakarta.mail.Transport;
+import jakarta.mail.internet.AddressException;
+import jakarta.mail.internet.MimeMessage;
+import jakarta.mail.util.SharedFileInputStream;
+import org.eclipse.angus.mail.smtp.SMTPSendFailedException;
+import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Mail waiting to go out. "Send" only writes the message to disk (<id>.eml plus
+// <id>.properties with its delivery state); a background worker delivers it and
+// retries with exponential backoff, reconnecting as needed. Because the queue is
+// on disk, mail survives a crash or restart and is picked up at the next login.
+//
+// Delivery is at-least-once: a crash between the server accepting a message and
+// the files being removed sends it again on restart.
+public class Outbox {
+
+    public enum State { QUEUED, SENDING, FAILED }
+
+    public static class Entry {
+        public final String id;
+        public final String to;
+        public final String subject;
+        public final long created;
+        private volatile State state = State.QUEUED;
+        private volatile int attempts;
+        private volatile long nextAttempt;
+        private volatile String lastError;
+        private volatile long bytesSent;
+        private volatile long totalBytes;
+
+        Entry(String id, String to, String subject, long created) {
+            this.id = id;
+            this.to = to;
+            this.subject = subject;
+            this.created = created;
+        }
+
+        public State getState() { return state; }
+        public int getAttempts() { return attempts; }
+        public long getNextAttempt() { return nextAttempt; }
+        public String getLastError() { return lastError; }
+        public long getBytesSent() { return bytesSent; }
+        public long getTotalBytes() { return totalBytes; }
+    }
+
+    // Called on the worker thread whenever an entry changes; delivered entries are already removed.
+    // entry is null when the whole queue was re-read (see start)
+    public interface Listener { void changed(Entry entry, boolean delivered); }
+
+    private static final long FIRST_RETRY_MILLIS = 5_000;
+    private static final long MAX_RETRY_MILLIS = 15 * 60_000;
+    private static final int MAX_ATTEMPTS = 12;
+    private static final long PROGRESS_EVERY_NANOS = 200_000_000;
+    // The newest worker per outbox directory. A logout stops the worker without waiting
+    // for the message in flight; the next login's worker waits for it instead (see start)
+    private static final Map<Path, Thread> WORKERS = new ConcurrentHashMap<>();
+
+    private final EmailSender sender;
+    private final Path dir;
+    private final Listener listener;
+    private final Map<String, Entry> entries = new LinkedHashMap<>(); // oldest first
+    private Thread worker;
+    private volatile boolean running;
+    private Transport transport; // worker thread only
+
+    public Outbox(EmailSender sender, Listener listener) throws IOException {
+        this.sender = sender;
+        this.listener = listener;
+        this.dir = AppPaths.accountDir(sender.getUserEmail()).resolve("outbox");
+        load();
+    }
+
+    // If an earlier Outbox on the same directory is still finishing a send, the worker
+    // waits for it and re-reads the queue: what this one loaded may show that message
+    // as QUEUED (read back from SENDING), and sending it again would deliver it twice
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        Thread previous = WORKERS.get(dir);
+        worker = new Thread(() -> {
+            if (previous != null && previous.isAlive() && !takeOver(previous)) return;
+            deliverLoop();
+        }, "outbox");
+        worker.setDaemon(true);
+        WORKERS.put(dir, worker);
+        worker.start();
+    }
+
+    private boolean takeOver(Thread previous) {
+        try {
+            previous.join();
+        } catch (InterruptedException e) {
+            return false;
+        }
+        synchronized (this) {
+            entries.clear();
+            try {
+                load();
+            } catch (IOException e) {
+                System.err.println("Outbox: could not re-read " + dir + ": " + e.getMessage());
+            }
+        }
+        listener.changed(null, false);
+        return true;
+    }
+
+    // The message in flight, if any, is allowed to finish; a later Outbox on the
+    // same account waits for it before sending anything
+    public synchronized void stop() {
+        running = false;
+        notifyAll();
+    }
+
+    // Returns once the message is safely on disk; delivery happens in the background
+    public Entry enqueue(MimeMessage message) throws IOException, MessagingException {
+        message.saveChanges();
+        long now = System.currentTimeMillis();
+        String id = now + "-" + Integer.toHexString(ThreadLocalRandom.current().nextInt());
+        String to = message.getHeader("To", ", ");
+        String subject = message.getSubject();
+        Entry entry = new Entry(id, to != null ? to : "", subject != null ? subject : "", now);
+
+        // The .eml is complete before the state file appears, so a half-written message is never queued
+        Path eml = emlFile(id);
+        Path tmp = dir.resolve(id + ".eml.tmp");
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp), 64 * 1024)) {
+            message.writeTo(out);
+        }
+        Files.move(tmp, eml, StandardCopyOption.ATOMIC_MOVE);
+        save(entry);
+
+        synchronized (this) {
+            entries.put(id, entry);
+            notifyAll();
+        }
+        listener.changed(entry, false);
+        return entry;
+    }
+
+    public synchronized List<Entry> getEntries() {
+        return new ArrayList<>(entries.values());
+    }
+
+    // Gives failed messages a fresh set of attempts
+    public void retryFailed() {
+        List<Entry> retried = new ArrayList<>();
+        synchronized (this) {
+            for (Entry e : entries.values()) {
+                if (e.state != State.FAILED) continue;
+                e.state = State.QUEUED;
+                e.attempts = 0;
+                e.nextAttempt = 0;
+                retried.add(e);
+            }
+            notifyAll();
+        }
+        for (Entry e : retried) {
+            saveQuietly(e);
+            listener.changed(e, false);
+        }
+    }
+
+    // --- WORKER ---
+
+    private void deliverLoop() {
+        try {
+            while (true) {
+                Entry next = awaitDue();
+                if (next == null) return;
+                deliver(next);
+            }
+        } finally {
+            closeTransport();
+        }
+    }
+
+    // The oldest entry whose retry time has come; waits until there is one or the outbox stops
+    private synchronized Entry awaitDue() {
+        while (running) {
+            long now = System.currentTimeMillis();
+            long earliest = Long.MAX_VALUE;
+            for (Entry e : entries.values()) {
+                if (e.state != State.QUEUED) continue;
+                if (e.nextAttempt <= now) return e;
+                earliest = Math.min(earliest, e.nextAttempt);
+            }
+            try {
+                if (earliest == Long.MAX_VALUE) wait();
+                else wait(earliest - now);
+            } catch (InterruptedException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private void deliver(Entry entry) {
+        entry.state = State.SENDING;
+        saveQuietly(entry);
+        listener.changed(entry, false);
+
+        Path eml = emlFile(entry.id);
+        try (InputStream in = new SharedFileInputStream(eml.toFile())) {
+            // Parsed from a shared file stream, so the attachments are sent from disk, not memory
+            MimeMessage message = new TrackedMessage(sender.getSession(), in, entry);
+            entry.totalBytes = Files.size(eml);
+            entry.bytesSent = 0;
+            if (transport == null || !transport.isConnected()) {
+                closeTransport();
+                transport = sender.openTransport();
+            }
+            sender.checkSize(entry.totalBytes); // against the SIZE this server just advertised
+            try (Metrics.Sample sample = Metrics.start("smtp.send")) {
+                transport.sendMessage(message, message.getAllRecipients());
+                sample.bytes(entry.bytesSent);
+                sample.ok();
+            }
+        } catch (Exception e) {
+            failed(entry, e);
+            return;
+        }
+
+        synchronized (this) { entries.remove(entry.id); }
+        try {
+            Files.deleteIfExists(stateFile(entry.id));
+            Files.deleteIfExists(emlFile(entry.id));
+        } catch (IOException e) {
+            System.err.println("Outbox: sent, but could not remove " + entry.id + ": " + e.getMessage());
+        }
+        listener.changed(entry, true);
+    }
+
+    private void failed(Entry entry, Exception error) {
+        entry.attempts++;
+        entry.lastError = error.getMessage() != null ? error.getMessage() : error.toString();
+        if (isPermanent(error) || entry.attempts >= MAX_ATTEMPTS) {
+            entry.state = State.FAILED;
+        } else {
+            // 5 s, 10 s, 20 s... capped, with some jitter so retries don't line up
+            long delay = Math.min(MAX_RETRY_MILLIS, FIRST_RETRY_MILLIS << Math.min(entry.attempts - 1, 20));
+            delay += ThreadLocalRandom.current().nextLong(delay / 5 + 1);
+            entry.nextAttempt = System.currentTimeMillis() + delay;
+            entry.state = State.QUEUED;
+            closeTransport(); // the next attempt starts on a fresh connection
+        }
+        saveQuietly(entry);
+        listener.changed(entry, false);
+    }
+
+    // Retrying won't help when the server rejected the message or an address outright
+    private static boolean isPermanent(Exception e) {
+        if (e instanceof AddressException || e instanceof EmailSender.MessageTooLargeException) return true;
+        if (e instanceof SMTPSendFailedException && ((SMTPSendFailedException) e).getReturnCode() >= 500) return true;
+        if (e instanceof SendFailedException) {
+            SendFailedException sfe = (SendFailedException) e;
+            return sfe.getInvalidAddresses() != null && sfe.getInvalidAddresses().length > 0;
+        }
+        return false;
+    }
+
+    // Counts what the transport writes to the socket, for upload progress
+    private class TrackedMessage extends MimeMessage {
+        private final Entry entry;
+        private long lastReport = System.nanoTime();
+
+        TrackedMessage(Session session, InputStream in, Entry entry) throws MessagingException {
+            super(session, in);
+            this.entry = entry;
+        }
+
+        @Override public void writeTo(OutputStream os, String[] ignoreList) throws IOException, MessagingException {
+            super.writeTo(new FilterOutputStream(os) {
+                @Override public void write(int b) throws IOException {
+                    out.write(b);
+                    sent(1);
+                }
+
+                @Override public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                    sent(len);
+                }
+            }, ignoreList);
+        }
+
+        private void sent(int count) {
+            entry.bytesSent += count;
+            long now = System.nanoTime();
+            if (now - lastReport >= PROGRESS_EVERY_NANOS) {
+                lastReport = now;
+                listener.changed(entry, false);
+            }
+        }
+    }
+
+    private void closeTransport() {
+        if (transport == null) return;
+        try { transport.close(); } catch (MessagingException ignored) {}
+        transport = null;
+    }
+
+    // --- FILES ---
+
+    private void load() throws IOException {
+        Files.createDirectories(dir);
+        List<Entry> found = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(".tmp")) {
+                    Files.deleteIfExists(file); // never made it into the queue
+                } else if (name.endsWith(".properties")) {
+                    Entry entry = read(file);
+                    if (entry != null && Files.exists(emlFile(entry.id))) found.add(entry);
+                    else Files.deleteIfExists(file);
+                }
+            }
+        }
+        found.sort((a, b) -> Long.compare(a.created, b.created));
+        for (Entry e : found) entries.put(e.id, e);
+    }
+
+    private Entry read(Path file) {
+        Properties p = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            p.load(in);
+            String id = file.getFileName().toString().replace(".properties", "");
+            Entry entry = new Entry(id, p.getProperty("to", ""), p.getProperty("subject", ""), Long.parseLong(p.getProperty("created", "0")));
+            State state = State.valueOf(p.getProperty("state", "QUEUED"));
+            entry.state = state == State.SENDING ? State.QUEUED : state; // interrupted mid-send
+            entry.attempts = Integer.parseInt(p.getProperty("attempts", "0"));
+            entry.nextAttempt = Long.parseLong(p.getProperty("nextAttempt", "0"));
+            entry.lastError = p.getProperty("lastError");
+            return entry;
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Outbox: skipping unreadable " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void save(Entry entry) throws IOException {
+        Properties p = new Properties();
+        p.setProperty("to", entry.to);
+        p.setProperty("subject", entry.subject);
+        p.setProperty("created", String.valueOf(entry.created));
+        p.setProperty("state", entry.state.name());
+        p.setProperty("attempts", String.valueOf(entry.attempts));
+        p.setProperty("nextAttempt", String.valueOf(entry.nextAttempt));
+        if (entry.lastError != null) p.setProperty("lastError", entry.lastError);
+        Path tmp = dir.resolve(entry.id + ".properties.tmp");
+        try (OutputStream out = Files.newOutputStream(tmp)) {
+            p.store(out, null);
+        }
+        Files.move(tmp, stateFile(entry.id), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void saveQuietly(Entry entry) {
+        try {
+            save(entry);
+        } catch (IOException e) {
+            System.err.println("Outbox: could not save state of " + entry.id + ": " + e.getMessage());
+        }
+    }
+
+    private Path emlFile(String id) { return dir.resolve(id + ".eml"); }
+
+    private Path stateFile(String id) { return dir.resolve(id + ".properties"); }
+}
@@ -0,0 +1,191 @@
+import javafx.collections.ObservableListBase;
+import javafx.concurrent.Task;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+// The inbox table's rows: reads as a list of every message in the folder, newest
+// first, but only holds the pages the table has actually asked for. A row that
+// is not loaded reads as null and queues a fetch of its page; once it
+// arrives the rows are replaced and the table repaints them. Pages are dropped
+// least recently used first, so memory stays flat however large the folder is.
+//
+// Pages are cut by sequence number counted from the oldest message, so new mail
+// arriving at the top does not move anything that is already loaded.
+// FX thread only.
+public class PagedMessageList extends ObservableListBase<EmailReceiver.EmailHeader> {
+
+    // Headers for sequence numbers first..last, in any order, with messageNumber set
+    public interface PageLoader { List<EmailReceiver.EmailHeader> load(int first, int last) throws Exception; }
+
+    static final int PAGE_SIZE = 100;
+    private static final int MAX_PAGES = 30;          // ~3000 headers held at most
+    private static final int MAX_IN_FLIGHT = 2;
+    private static final int MAX_WANTED = 6;          // older requests are dropped while scrolling fast
+    private static final long RETRY_AFTER_MILLIS = 5_000;
+
+    private final PageLoader loader;
+    private final TaskScheduler tasks;
+    private int size;
+    private int generation; // bumped when pages are dropped, so fetches started before are ignored
+    private final Map<Integer, Page> pages = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override protected boolean removeEldestEntry(Map.Entry<Integer, Page> eldest) {
+            return size() > MAX_PAGES;
+        }
+    };
+    private final Deque<Integer> wanted = new ArrayDeque<>(); // most recently asked for first
+    private final Set<Integer> loading = new HashSet<>();
+    private final Map<Integer, Long> failedAt = new HashMap<>();
+
+    // A page can hold only some of its rows: preloaded or pushed headers land in
+    // whatever page their sequence number falls in, the rest is still to be fetched
+    private static class Page {
+        final EmailReceiver.EmailHeader[] headers = new EmailReceiver.EmailHeader[PAGE_SIZE];
+        int filled;
+    }
+
+    public PagedMessageList(int messageCount, PageLoader loader, TaskScheduler tasks) {
+        this.size = messageCount;
+        this.loader = loader;
+        this.tasks = tasks;
+    }
+
+    @Override public int size() { return size; }
+
+    @Override public EmailReceiver.EmailHeader get(int index) {
+        Objects.checkIndex(index, size);
+        int seq = size - index;
+        int page = (seq - 1) / PAGE_SIZE;
+        Page loaded = pages.get(page);
+        EmailReceiver.EmailHeader header = loaded != null ? loaded.headers[(seq - 1) % PAGE_SIZE] : null;
+        if (header == null) request(page);
+        return header;
+    }
+
+    // Rows already showing headers from the cache can be put in before their page loads
+    public void preload(List<EmailReceiver.EmailHeader> newestFirst) {
+        for (EmailReceiver.EmailHeader h : newestFirst) {
+            if (h.messageNumber > 0 && h.messageNumber <= size) store(h);
+        }
+    }
+
+    // --- LIVE UPDATES (from the mailbox watcher) ---
+
+    public void messageAdded(EmailReceiver.EmailHeader header) {
+        if (indexOf(header.uid) >= 0) return;
+        size++;
+        header.messageNumber = size;
+        store(header);
+        beginChange();
+        nextAdd(0, 1);
+        endChange();
+    }
+
+    // Everything after an expunged message moves up one sequence number, so the
+    // pages from there on no longer line up and are dropped
+    public void messageExpunged(long uid) {
+        if (size == 0) return;
+        int index = indexOf(uid);
+        EmailReceiver.EmailHeader removed = index >= 0 ? get(index) : null;
+        int firstStalePage = index >= 0 ? (size - index - 1) / PAGE_SIZE : 0;
+        pages.keySet().removeIf(page -> page >= firstStalePage);
+        generation++;
+        loading.clear();
+        size--;
+        beginChange();
+        nextRemove(Math.max(index, 0), removed);
+        endChange();
+    }
+
+    public void flagsChanged(long uid, boolean seen) {
+        int index = indexOf(uid);
+        if (index < 0) return;
+        EmailReceiver.EmailHeader header = get(index);
+        header.seen = seen;
+        beginChange();
+        nextSet(index, header);
+        endChange();
+    }
+
+    private int indexOf(long uid) {
+        for (Map.Entry<Integer, Page> e : pages.entrySet()) {
+            EmailReceiver.EmailHeader[] headers = e.getValue().headers;
+            for (int i = 0; i < headers.length; i++) {
+                if (headers[i] != null && headers[i].uid == uid) return size - (e.getKey() * PAGE_SIZE + i + 1);
+            }
+        }
+        return -1;
+    }
+
+    // --- PAGE LOADING ---
+
+    private void request(int page) {
+        if (loading.contains(page)) return;
+        Long failed = failedAt.get(page);
+        if (failed != null && System.currentTimeMillis() - failed < RETRY_AFTER_MILLIS) return;
+        wanted.remove(page);
+        wanted.addFirst(page);
+        while (wanted.size() > MAX_WANTED) wanted.removeLast();
+        pump();
+    }
+
+    private void pump() {
+        while (loading.size() < MAX_IN_FLIGHT && !wanted.isEmpty()) {
+            int page = wanted.pollFirst();
+            if (isComplete(page)) continue;
+            int first = page * PAGE_SIZE + 1;
+            int last = Math.min(size, first + PAGE_SIZE - 1);
+            if (first > last) continue;
+            int startedIn = generation;
+            loading.add(page);
+            Task<List<EmailReceiver.EmailHeader>> task = new Task<>() {
+                @Override protected List<EmailReceiver.EmailHeader> call() throws Exception {
+                    return loader.load(first, last);
+                }
+            };
+            task.setOnSucceeded(e -> {
+                loading.remove(page);
+                failedAt.remove(page);
+                if (startedIn == generation) loaded(page, task.getValue());
+                // Rows expunged meanwhile can leave gaps; don't refetch on every repaint
+                if (!isComplete(page)) failedAt.put(page, System.currentTimeMillis());
+                pump();
+            });
+            task.setOnFailed(e -> {
+                loading.remove(page);
+                failedAt.put(page, System.currentTimeMillis());
+                pump();
+            });
+            tasks.submit(task);
+        }
+    }
+
+    private void loaded(int page, List<EmailReceiver.EmailHeader> headers) {
+        for (EmailReceiver.EmailHeader h : headers) store(h);
+        if (!pages.containsKey(page)) return;
+        int first = page * PAGE_SIZE + 1;
+        beginChange();
+        for (int seq = Math.min(size, first + PAGE_SIZE - 1); seq >= first; seq--) nextSet(size - seq, null);
+        endChange();
+    }
+
+    private boolean isComplete(int page) {
+        Page loaded = pages.get(page);
+        return loaded != null && loaded.filled >= Math.min(PAGE_SIZE, size - page * PAGE_SIZE);
+    }
+
+    private void store(EmailReceiver.EmailHeader header) {
+        int seq = header.messageNumber;
+        if (seq < 1) return;
+        Page page = pages.computeIfAbsent((seq - 1) / PAGE_SIZE, p -> new Page());
+        int slot = (seq - 1) % PAGE_SIZE;
+        if (page.headers[slot] == null) page.filled++;
+        page.headers[slot] = header;
+    }
+}
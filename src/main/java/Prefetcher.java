@@ -0,0 +1,121 @@
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+// Reads the messages around the one being read before the user gets to them.
+// When a message opens, the bodies of its neighbours (next and previous, nearest
+// first) are fetched one at a time on a low-priority thread and kept in memory,
+// so stepping through the list shows them without a round trip.
+//
+// Prefetching yields to the screens: it waits while the connection pool has no
+// spare connection, keeps at most MEMORY_BUDGET bytes of bodies (least recently
+// used go first), and is dropped as soon as the user leaves the folder.
+public class Prefetcher {
+
+    static final int NEIGHBOURS = Integer.getInteger("golden.prefetch.neighbours", 3);
+    private static final long MEMORY_BUDGET = Long.getLong("golden.prefetch.budget", 8L * 1024 * 1024);
+    private static final long BUSY_WAIT_MILLIS = 250;
+
+    private final EmailReceiver receiver;
+    private final Deque<Long> queue = new ArrayDeque<>(); // guarded by this
+    private String folder;                                  // guarded by this; what the queue belongs to
+    private int generation;                                 // guarded by this; bumped by cancel()
+    private boolean closed;
+    private long memoryBytes;
+    private final LinkedHashMap<String, EmailReceiver.EmailContent> bodies = new LinkedHashMap<>(16, 0.75f, true); // guarded by this
+
+    public Prefetcher(EmailReceiver receiver) {
+        this.receiver = receiver;
+        Thread worker = new Thread(this::run, "prefetch");
+        worker.setDaemon(true);
+        worker.setPriority(Thread.MIN_PRIORITY);
+        worker.start();
+    }
+
+    // A prefetched body, or null if it has to be read the usual way
+    public synchronized EmailReceiver.EmailContent get(String folderName, long uid) {
+        return bodies.get(key(folderName, uid));
+    }
+
+    // Replaces whatever was still queued: 'around' is nearest first
+    public synchronized void prefetch(String folderName, List<Long> around) {
+        if (closed) return;
+        if (!folderName.equals(folder)) cancel();
+        folder = folderName;
+        queue.clear();
+        for (long uid : around) {
+            if (!bodies.containsKey(key(folderName, uid))) queue.add(uid);
+        }
+        notifyAll();
+    }
+
+    // The user left the folder: drop what is queued and ignore the fetch in flight
+    public synchronized void cancel() {
+        queue.clear();
+        folder = null;
+        generation++;
+    }
+
+    // At logout
+    public synchronized void close() {
+        cancel();
+        closed = true;
+        bodies.clear();
+        memoryBytes = 0;
+        notifyAll();
+    }
+
+    private void run() {
+        while (true) {
+            String folderName;
+            long uid;
+            int startedIn;
+            synchronized (this) {
+                while (!closed && queue.isEmpty()) {
+                    try { wait(); } catch (InterruptedException e) { return; }
+                }
+                if (closed) return;
+                if (!receiver.hasSpareConnection()) {
+                    // Leave the connections to what the user is waiting for
+                    try { wait(BUSY_WAIT_MILLIS); } catch (InterruptedException e) { return; }
+                    continue;
+                }
+                folderName = folder;
+                uid = queue.pollFirst();
+                startedIn = generation;
+            }
+            try {
+                EmailReceiver.EmailContent content = receiver.fetchEmailByUid(folderName, uid);
+                if (content != null) store(folderName, uid, content, startedIn);
+            } catch (Exception e) {
+                System.err.println("Prefetch of " + folderName + "/" + uid + " failed: " + e.getMessage());
+            }
+        }
+    }
+
+    private synchronized void store(String folderName, long uid, EmailReceiver.EmailContent content, int startedIn) {
+        if (startedIn != generation || closed) return;
+        long size = bytes(content);
+        if (size > MEMORY_BUDGET / 4) return; // one huge message would push out all the others
+        EmailReceiver.EmailContent previous = bodies.put(key(folderName, uid), content);
+        memoryBytes += size - (previous != null ? bytes(previous) : 0);
+        Iterator<EmailReceiver.EmailContent> eldest = bodies.values().iterator();
+        while (memoryBytes > MEMORY_BUDGET && eldest.hasNext()) {
+            memoryBytes -= bytes(eldest.next());
+            eldest.remove();
+        }
+    }
+
+    // Java strings are roughly two bytes a character
+    private static long bytes(EmailReceiver.EmailContent content) {
+        long size = content.htmlBody != null ? content.htmlBody.length() * 2L : 0;
+        for (String name : content.attachmentNames) size += name.length() * 2L + 8;
+        return size;
+    }
+
+    private static String key(String folderName, long uid) {
+        return folderName + "\u0000" + uid;
+    }
+}
@@ -0,0 +1,74 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.regex.Pattern;
+
+// Messages ready to hand to the reading pane: the body with scripts stripped and
+// wrapped in the pane's styling, plus the attachment list. Keyed by folder and
+// UID, least recently used dropped once the HTML adds up to MAX_BYTES, so
+// going back to a recent message skips both the fetch and the string work.
+// FX thread only.
+public class RenderedContentCache {
+
+    public static class Entry {
+        final String key;
+        final String html;
+        final EmailReceiver.EmailContent content;
+
+        Entry(String key, String html, EmailReceiver.EmailContent content) {
+            this.key = key;
+            this.html = html;
+            this.content = content;
+        }
+    }
+
+    private static final long MAX_BYTES = Long.getLong("golden.render.cache.bytes", 16L * 1024 * 1024);
+    private static final Pattern SCRIPT = Pattern.compile("(?is)<script\\b.*?</script\\s*>|<script\\b[^>]*/?>");
+    private static final Pattern EVENT_HANDLER = Pattern.compile("(?i)\\s+on[a-z]+\\s*=\\s*(\"[^\"]*\"|'[^']*'|[^\\s>]+)");
+    private static final Pattern JS_URL = Pattern.compile("(?i)(href|src)\\s*=\\s*([\"']?)\\s*javascript:");
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+
+    public Entry get(String folderName, long uid) {
+        return entries.get(key(folderName, uid));
+    }
+
+    // Error pages are rendered but not kept, so the next click tries again
+    public Entry put(String folderName, long uid, EmailReceiver.EmailContent content) {
+        String key = key(folderName, uid);
+        Entry entry = new Entry(key, style(content.htmlBody), content);
+        if (content.htmlBody == null || content.htmlBody.startsWith("Error:")) return entry;
+        Entry previous = entries.put(key, entry);
+        bytes += size(entry) - (previous != null ? size(previous) : 0);
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (bytes > MAX_BYTES && entries.size() > 1) {
+            bytes -= size(eldest.next());
+            eldest.remove();
+        }
+        return entry;
+    }
+
+    public void remove(String folderName, long uid) {
+        Entry removed = entries.remove(key(folderName, uid));
+        if (removed != null) bytes -= size(removed);
+    }
+
+    public void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    private static String style(String body) {
+        String safe = body == null ? "" : JS_URL.matcher(EVENT_HANDLER.matcher(SCRIPT.matcher(body).replaceAll("")).replaceAll(""))
+                .replaceAll("$1=$2#");
+        return "<body style='color: black; background-color: transparent; font-family: Segoe UI;'>" + safe + "</body>";
+    }
+
+    private static long size(Entry entry) {
+        return (entry.html.length() + (entry.content.htmlBody != null ? entry.content.htmlBody.length() : 0)) * 2L;
+    }
+
+    private static String key(String folderName, long uid) {
+        return folderName + "\u0000" + uid;
+    }
+}
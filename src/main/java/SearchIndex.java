@@ -0,0 +1,849 @@
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.text.Normalizer;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Full-text index over one cached folder: subjects, senders and body text.
+// An inverted index kept in immutable segment files, plus an in-memory buffer for
+// the newest messages. Posting lists are delta/varint encoded with positions, the
+// term dictionary is front-coded in blocks, and segments are merged in the background
+// once there are too many of them.
+//
+// The header and the body of a message are indexed as two documents (uid*2 and
+// uid*2+1), so a body fetched later is added without touching the header; queries
+// combine the two per UID.
+//
+// Query syntax: all words must match, word* matches a prefix, "quoted words" a phrase.
+public class SearchIndex {
+    private static final int FORMAT_VERSION = 1;
+    private static final int MAGIC = 0x47534931;      // "GSI1"
+    private static final int BUFFER_DOCS = 2000;      // documents held in memory before writing a segment
+    private static final int MAX_SEGMENTS = 6;
+    private static final int MERGE_FACTOR = 4;        // segments folded together per merge
+    private static final int BLOCK = 32;              // dictionary terms per block
+    private static final int MAX_EXPANSIONS = 1024;   // terms one prefix may expand to, per segment
+    private static final int MAX_TOKENS = 50_000;     // per document
+    private static final int MAX_WORD = 64;           // longer "words" are mostly base64 or URLs
+    private static final int FIELD_GAP = 16;          // positions between fields, so phrases don't span them
+
+    private static final Pattern SCRIPT_OR_STYLE = Pattern.compile("(?is)<(script|style)\\b[^>]*>.*?</\\1\\s*>");
+    private static final Pattern TAG = Pattern.compile("(?s)<[^>]*>");
+    private static final Pattern ENTITY = Pattern.compile("&(#x[0-9a-fA-F]+|#[0-9]+|[a-zA-Z]+);");
+
+    // Merges run here, away from the fetch threads. Flushes don't: a segment holds at most
+    // BUFFER_DOCS documents and is written on the thread that filled the buffer.
+    static final ExecutorService BACKGROUND = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "search-index");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+
+    private final Path dir;
+    private List<Segment> segments = new ArrayList<>();               // immutable list, replaced on change
+    private TreeMap<String, TreeMap<Long, int[]>> buffer = new TreeMap<>(); // term -> key -> positions
+    private final Set<Long> bufferKeys = new HashSet<>();
+    private final Set<Long> deleted = new HashSet<>();                // UIDs removed from the folder
+    private int nextSegment;
+    private int generation;                                           // bumped by clear(), voids merges in flight
+    private boolean merging;
+
+    public SearchIndex(Path dir) {
+        this.dir = dir;
+        try {
+            open();
+        } catch (IOException e) {
+            System.err.println("Search index unreadable, rebuilding: " + e.getMessage());
+            clear();
+        }
+    }
+
+    // --- INDEXING ---
+
+    public void addHeader(long uid, String subject, String from) {
+        List<List<String>> fields = List.of(tokens(subject), tokens(from));
+        synchronized (this) { index(uid * 2, fields); }
+    }
+
+    public void addBody(long uid, String html) {
+        List<List<String>> fields = List.of(tokens(htmlToText(html))); // outside the lock, it is the slow part
+        synchronized (this) { index(uid * 2 + 1, fields); }
+    }
+
+    public synchronized boolean hasHeader(long uid) { return contains(uid * 2); }
+
+    public synchronized boolean hasBody(long uid) { return contains(uid * 2 + 1); }
+
+    public synchronized void remove(long uid) {
+        deleted.add(uid);
+    }
+
+    private void index(long key, List<List<String>> fields) {
+        if (contains(key)) return;
+        Map<String, List<Integer>> positions = new HashMap<>();
+        int position = 0;
+        for (List<String> field : fields) {
+            for (String word : field) positions.computeIfAbsent(word, w -> new ArrayList<>()).add(position++);
+            position += FIELD_GAP;
+        }
+        for (Map.Entry<String, List<Integer>> e : positions.entrySet()) {
+            int[] list = e.getValue().stream().mapToInt(Integer::intValue).toArray();
+            buffer.computeIfAbsent(e.getKey(), t -> new TreeMap<>()).put(key, list);
+        }
+        bufferKeys.add(key);
+        if (bufferKeys.size() >= BUFFER_DOCS) flush();
+    }
+
+    private boolean contains(long key) {
+        if (deleted.contains(key >>> 1)) return true; // gone from the folder, nothing to add
+        if (bufferKeys.contains(key)) return true;
+        for (Segment s : segments) if (s.hasKey(key)) return true;
+        return false;
+    }
+
+    // Writes the in-memory part to a new segment; anything not flushed is re-indexed
+    // from the message cache at the next start
+    public synchronized void flush() {
+        try {
+            if (!bufferKeys.isEmpty()) {
+                long[] keys = bufferKeys.stream().mapToLong(Long::longValue).sorted().toArray();
+                Path file = dir.resolve(segmentName(nextSegment++));
+                writeSegment(file, keys, bufferTerms(buffer));
+                List<Segment> updated = new ArrayList<>(segments);
+                updated.add(Segment.open(file));
+                segments = updated;
+                buffer = new TreeMap<>();
+                bufferKeys.clear();
+            }
+            writeManifest();
+            if (segments.size() > MAX_SEGMENTS && !merging) scheduleMerge();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Drops everything, e.g. when the folder's UIDVALIDITY changed
+    public synchronized void clear() {
+        generation++;
+        segments = new ArrayList<>();
+        buffer = new TreeMap<>();
+        bufferKeys.clear();
+        deleted.clear();
+        try {
+            Files.createDirectories(dir);
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+                for (Path f : files) deleteQuietly(f);
+            }
+            writeManifest();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // --- QUERIES ---
+
+    // Matching UIDs, newest (highest UID) first
+    public synchronized List<Long> search(String query, int limit) {
+        List<Clause> clauses = parse(query);
+        if (clauses.isEmpty()) return new ArrayList<>();
+        long[] matches = null;
+        for (Clause clause : clauses) {
+            long[] uids = evaluate(clause);
+            matches = matches == null ? uids : intersect(matches, uids);
+            if (matches.length == 0) break;
+        }
+        List<Long> result = new ArrayList<>();
+        for (int i = matches.length - 1; i >= 0 && result.size() < limit; i--) {
+            if (!deleted.contains(matches[i])) result.add(matches[i]);
+        }
+        return result;
+    }
+
+    private static class Clause {
+        final List<String> words; // more than one: a phrase
+        final boolean prefix;     // last word is a prefix
+
+        Clause(List<String> words, boolean prefix) {
+            this.words = words;
+            this.prefix = prefix;
+        }
+    }
+
+    private static List<Clause> parse(String query) {
+        List<Clause> clauses = new ArrayList<>();
+        if (query == null) return clauses;
+        Matcher m = Pattern.compile("\"([^\"]*)\"?|(\\S+)").matcher(query);
+        while (m.find()) {
+            if (m.group(1) != null) {
+                List<String> words = tokens(m.group(1));
+                if (!words.isEmpty()) clauses.add(new Clause(words, false));
+                continue;
+            }
+            String word = m.group(2);
+            boolean prefix = word.endsWith("*");
+            List<String> words = tokens(word);
+            if (words.isEmpty()) continue;
+            if (prefix) {
+                // "alice@exa*": the complete parts must match, the last one is a prefix
+                for (String w : words.subList(0, words.size() - 1)) clauses.add(new Clause(List.of(w), false));
+                clauses.add(new Clause(List.of(words.get(words.size() - 1)), true));
+            } else {
+                clauses.add(new Clause(words, false)); // an address or "e-mail" becomes a phrase
+            }
+        }
+        return clauses;
+    }
+
+    private long[] evaluate(Clause clause) {
+        LongList uids = new LongList();
+        if (clause.words.size() == 1) {
+            String word = clause.words.get(0);
+            for (Segment s : segments) {
+                if (clause.prefix) {
+                    for (Segment.TermInfo t : s.termsWithPrefix(word, MAX_EXPANSIONS)) s.collectUids(t, uids);
+                } else {
+                    Segment.TermInfo t = s.find(word);
+                    if (t != null) s.collectUids(t, uids);
+                }
+            }
+            Map<String, TreeMap<Long, int[]>> terms = clause.prefix
+                    ? buffer.subMap(word, true, word + Character.MAX_VALUE, true)
+                    : buffer.containsKey(word) ? Map.of(word, buffer.get(word)) : Map.of();
+            for (TreeMap<Long, int[]> postings : terms.values()) {
+                for (long key : postings.keySet()) uids.add(key >>> 1);
+            }
+        } else {
+            for (Segment s : segments) {
+                List<Segment.TermInfo> infos = new ArrayList<>();
+                for (String word : clause.words) {
+                    Segment.TermInfo t = s.find(word);
+                    if (t == null) break;
+                    infos.add(t);
+                }
+                if (infos.size() < clause.words.size()) continue;
+                // Only documents with the rarest word can match, positions are decoded for those alone
+                Segment.TermInfo rarest = Collections.min(infos, Comparator.comparingInt(t -> t.docFreq));
+                Set<Long> candidates = s.positions(rarest, null).keySet();
+                List<Map<Long, int[]>> lists = new ArrayList<>();
+                for (Segment.TermInfo t : infos) lists.add(s.positions(t, candidates));
+                matchPhrase(lists, uids);
+            }
+            List<Map<Long, int[]>> lists = new ArrayList<>();
+            for (String word : clause.words) {
+                if (!buffer.containsKey(word)) break;
+                lists.add(buffer.get(word));
+            }
+            if (lists.size() == clause.words.size()) matchPhrase(lists, uids);
+        }
+        return uids.sortedDistinct();
+    }
+
+    // Keeps the documents where word i sits at position p + i for some p
+    private static void matchPhrase(List<Map<Long, int[]>> lists, LongList uids) {
+        for (Map.Entry<Long, int[]> doc : lists.get(0).entrySet()) {
+            int[] starts = doc.getValue();
+            for (int i = 1; i < lists.size() && starts.length > 0; i++) {
+                int[] next = lists.get(i).get(doc.getKey());
+                starts = next == null ? new int[0] : shiftedIntersection(starts, next, i);
+            }
+            if (starts.length > 0) uids.add(doc.getKey() >>> 1);
+        }
+    }
+
+    private static int[] shiftedIntersection(int[] starts, int[] positions, int shift) {
+        int[] out = new int[Math.min(starts.length, positions.length)];
+        int n = 0, i = 0, j = 0;
+        while (i < starts.length && j < positions.length) {
+            int want = starts[i] + shift;
+            if (positions[j] == want) { out[n++] = starts[i]; i++; j++; }
+            else if (positions[j] < want) j++;
+            else i++;
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    private static long[] intersect(long[] a, long[] b) {
+        long[] out = new long[Math.min(a.length, b.length)];
+        int n = 0, i = 0, j = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] == b[j]) { out[n++] = a[i]; i++; j++; }
+            else if (a[i] < b[j]) i++;
+            else j++;
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    // --- TEXT ---
+
+    // Lower case, accents folded, split on anything that is not a letter or digit
+    static List<String> tokens(String text) {
+        List<String> words = new ArrayList<>();
+        if (text == null || text.isEmpty()) return words;
+        String folded = Normalizer.normalize(text, Normalizer.Form.NFD);
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i <= folded.length() && words.size() < MAX_TOKENS; i++) {
+            char c = i < folded.length() ? folded.charAt(i) : ' ';
+            if (Character.getType(c) == Character.NON_SPACING_MARK) continue;
+            if (Character.isLetterOrDigit(c)) {
+                word.append(Character.toLowerCase(c));
+            } else if (word.length() > 0) {
+                if (word.length() <= MAX_WORD) words.add(word.toString());
+                word.setLength(0);
+            }
+        }
+        return words;
+    }
+
+    static String htmlToText(String html) {
+        if (html == null) return "";
+        String text = TAG.matcher(SCRIPT_OR_STYLE.matcher(html).replaceAll(" ")).replaceAll(" ");
+        Matcher m = ENTITY.matcher(text);
+        StringBuilder out = new StringBuilder(text.length());
+        while (m.find()) {
+            String entity = m.group(1);
+            String replacement;
+            try {
+                if (entity.startsWith("#x")) replacement = new String(Character.toChars(Integer.parseInt(entity.substring(2), 16)));
+                else if (entity.startsWith("#")) replacement = new String(Character.toChars(Integer.parseInt(entity.substring(1))));
+                else replacement = switch (entity.toLowerCase()) {
+                    case "amp" -> "&";
+                    case "lt" -> "<";
+                    case "gt" -> ">";
+                    case "quot" -> "\"";
+                    case "apos" -> "'";
+                    default -> " ";
+                };
+            } catch (IllegalArgumentException e) {
+                replacement = " ";
+            }
+            m.appendReplacement(out, Matcher.quoteReplacement(replacement));
+        }
+        m.appendTail(out);
+        return out.toString();
+    }
+
+    // --- FILES ---
+    // segments.txt : format version, then the live segment files, oldest first
+    // deleted.bin  : UIDs removed since their segment was written
+    // seg-N.idx    : [magic][key count][keys, delta varints][postings][dictionary blocks][block offsets][footer]
+
+    private void open() throws IOException {
+        Files.createDirectories(dir);
+        Path manifest = dir.resolve("segments.txt");
+        if (!Files.exists(manifest)) {
+            clear();
+            return;
+        }
+        List<String> lines = Files.readAllLines(manifest, StandardCharsets.UTF_8);
+        if (lines.isEmpty() || !lines.get(0).equals("version " + FORMAT_VERSION)) {
+            clear();
+            return;
+        }
+        Set<String> live = new HashSet<>(lines.subList(1, lines.size()));
+        for (String name : lines.subList(1, lines.size())) {
+            segments.add(Segment.open(dir.resolve(name)));
+            nextSegment = Math.max(nextSegment, Integer.parseInt(name.substring(4, name.length() - 4)) + 1);
+        }
+        Path deletedFile = dir.resolve("deleted.bin");
+        if (Files.exists(deletedFile)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(deletedFile)))) {
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) deleted.add(in.readLong());
+            }
+        }
+        // Leftovers from merges whose files could not be deleted at the time, or a crash
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "seg-*")) {
+            for (Path f : files) if (!live.contains(f.getFileName().toString())) deleteQuietly(f);
+        }
+    }
+
+    private void writeManifest() throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add("version " + FORMAT_VERSION);
+        for (Segment s : segments) lines.add(s.file.getFileName().toString());
+        Path tmp = dir.resolve("segments.txt.tmp");
+        Files.write(tmp, lines, StandardCharsets.UTF_8);
+        Files.move(tmp, dir.resolve("segments.txt"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        Path deletedTmp = dir.resolve("deleted.bin.tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(deletedTmp)))) {
+            out.writeInt(deleted.size());
+            for (long uid : deleted) out.writeLong(uid);
+        }
+        Files.move(deletedTmp, dir.resolve("deleted.bin"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String segmentName(int number) { return "seg-" + number + ".idx"; }
+
+    private static void deleteQuietly(Path file) {
+        try { Files.deleteIfExists(file); } catch (IOException ignored) {} // mapped on Windows, retried at next open
+    }
+
+    // --- MERGING ---
+
+    // Folds the smallest segments into one, dropping deleted messages on the way.
+    // Picking the smallest keeps segment sizes tiered, so a message is rewritten
+    // only a handful of times however large the folder grows.
+    private void scheduleMerge() {
+        merging = true;
+        List<Segment> bySize = new ArrayList<>(segments);
+        bySize.sort(Comparator.comparingInt(s -> s.data.capacity()));
+        List<Segment> inputs = new ArrayList<>(bySize.subList(0, Math.min(MERGE_FACTOR, bySize.size())));
+        Set<Long> removed = new HashSet<>(deleted);
+        int startedIn = generation;
+        Path target = dir.resolve(segmentName(nextSegment++));
+        BACKGROUND.execute(() -> {
+            try {
+                Segment merged = merge(inputs, removed, target);
+                synchronized (this) {
+                    if (generation != startedIn) {
+                        deleteQuietly(target);
+                        return;
+                    }
+                    List<Segment> updated = new ArrayList<>();
+                    updated.add(merged);
+                    for (Segment s : segments) if (!inputs.contains(s)) updated.add(s);
+                    segments = updated;
+                    // Only the merged segments dropped them; the larger ones and the buffer may still hold postings
+                    for (long uid : removed) if (!heldElsewhere(uid)) deleted.remove(uid);
+                    writeManifest();
+                }
+                for (Segment s : inputs) deleteQuietly(s.file);
+            } catch (IOException e) {
+                e.printStackTrace();
+                deleteQuietly(target);
+            } finally {
+                synchronized (this) { merging = false; }
+            }
+        });
+    }
+
+    private boolean heldElsewhere(long uid) {
+        long header = uid * 2, body = uid * 2 + 1;
+        if (bufferKeys.contains(header) || bufferKeys.contains(body)) return true;
+        for (Segment s : segments) if (s.hasKey(header) || s.hasKey(body)) return true;
+        return false;
+    }
+
+    private static Segment merge(List<Segment> inputs, Set<Long> removed, Path target) throws IOException {
+        LongList keys = new LongList();
+        for (Segment s : inputs) for (long key : s.keys) if (!removed.contains(key >>> 1)) keys.add(key);
+
+        // k-way merge of the sorted dictionaries
+        PriorityQueue<Segment.TermCursor> cursors = new PriorityQueue<>(Comparator.comparing((Segment.TermCursor c) -> c.term));
+        for (Segment s : inputs) {
+            Segment.TermCursor c = s.cursor();
+            if (c.next()) cursors.add(c);
+        }
+        Iterator<TermPostings> terms = new Iterator<>() {
+            private TermPostings pending = advance();
+
+            private TermPostings advance() {
+                while (!cursors.isEmpty()) {
+                    String term = cursors.peek().term;
+                    List<Posting> postings = new ArrayList<>();
+                    while (!cursors.isEmpty() && cursors.peek().term.equals(term)) {
+                        Segment.TermCursor c = cursors.poll();
+                        for (Posting p : c.segment.rawPostings(c.info)) if (!removed.contains(p.key >>> 1)) postings.add(p);
+                        if (c.next()) cursors.add(c);
+                    }
+                    if (postings.isEmpty()) continue;
+                    postings.sort(Comparator.comparingLong(p -> p.key));
+                    return new TermPostings(term, postings);
+                }
+                return null;
+            }
+
+            @Override public boolean hasNext() { return pending != null; }
+
+            @Override public TermPostings next() {
+                TermPostings current = pending;
+                pending = advance();
+                return current;
+            }
+        };
+        writeSegment(target, keys.sortedDistinct(), terms);
+        return Segment.open(target);
+    }
+
+    // --- SEGMENT FORMAT ---
+
+    private static class Posting {
+        final long key;
+        final int freq;
+        final byte[] positions; // delta varints
+
+        Posting(long key, int freq, byte[] positions) {
+            this.key = key;
+            this.freq = freq;
+            this.positions = positions;
+        }
+    }
+
+    private static class TermPostings {
+        final String term;
+        final List<Posting> postings; // by key
+
+        TermPostings(String term, List<Posting> postings) {
+            this.term = term;
+            this.postings = postings;
+        }
+    }
+
+    private static Iterator<TermPostings> bufferTerms(TreeMap<String, TreeMap<Long, int[]>> buffer) {
+        Iterator<Map.Entry<String, TreeMap<Long, int[]>>> it = buffer.entrySet().iterator();
+        return new Iterator<>() {
+            @Override public boolean hasNext() { return it.hasNext(); }
+
+            @Override public TermPostings next() {
+                Map.Entry<String, TreeMap<Long, int[]>> e = it.next();
+                List<Posting> postings = new ArrayList<>(e.getValue().size());
+                for (Map.Entry<Long, int[]> doc : e.getValue().entrySet()) {
+                    Out encoded = new Out(new ByteArrayOutputStream());
+                    int previous = 0;
+                    for (int p : doc.getValue()) {
+                        encoded.varLong(p - previous);
+                        previous = p;
+                    }
+                    postings.add(new Posting(doc.getKey(), doc.getValue().length, encoded.toByteArray()));
+                }
+                return new TermPostings(e.getKey(), postings);
+            }
+        };
+    }
+
+    private static void writeSegment(Path file, long[] keys, Iterator<TermPostings> terms) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (Out out = new Out(new BufferedOutputStream(Files.newOutputStream(tmp), 64 * 1024))) {
+            out.fixedInt(MAGIC);
+            out.fixedInt(keys.length);
+            long previousKey = 0;
+            for (long key : keys) {
+                out.varLong(key - previousKey);
+                previousKey = key;
+            }
+
+            // Postings first, the dictionary entries that point into them are kept until the end
+            List<String> termList = new ArrayList<>();
+            LongList offsets = new LongList();
+            LongList lengths = new LongList();
+            LongList docFreqs = new LongList();
+            while (terms.hasNext()) {
+                TermPostings t = terms.next();
+                long start = out.position();
+                long previous = 0;
+                for (Posting p : t.postings) {
+                    out.varLong(p.key - previous);
+                    out.varLong(p.freq);
+                    out.varLong(p.positions.length);
+                    out.bytes(p.positions);
+                    previous = p.key;
+                }
+                termList.add(t.term);
+                offsets.add(start);
+                lengths.add(out.position() - start);
+                docFreqs.add(t.postings.size());
+            }
+
+            long dictionaryStart = out.position();
+            LongList blockOffsets = new LongList();
+            byte[] previousTerm = new byte[0];
+            for (int i = 0; i < termList.size(); i++) {
+                byte[] term = termList.get(i).getBytes(StandardCharsets.UTF_8);
+                int shared = 0;
+                if (i % BLOCK == 0) {
+                    blockOffsets.add(out.position()); // blocks start with a whole term
+                } else {
+                    int max = Math.min(term.length, previousTerm.length);
+                    while (shared < max && term[shared] == previousTerm[shared]) shared++;
+                }
+                out.varLong(shared);
+                out.varLong(term.length - shared);
+                out.bytes(Arrays.copyOfRange(term, shared, term.length));
+                out.varLong(docFreqs.get(i));
+                out.varLong(offsets.get(i));
+                out.varLong(lengths.get(i));
+                previousTerm = term;
+            }
+
+            long blocksStart = out.position();
+            for (int i = 0; i < blockOffsets.size(); i++) out.fixedLong(blockOffsets.get(i));
+            out.fixedLong(dictionaryStart);
+            out.fixedLong(blocksStart);
+            out.fixedInt(termList.size());
+            out.fixedInt(blockOffsets.size());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static class Segment {
+        private static final int FOOTER = 8 + 8 + 4 + 4;
+
+        final Path file;
+        final long[] keys;
+        private final MappedByteBuffer data; // read with absolute gets only, so queries can share it
+        private final String[] blockFirst;
+        private final int[] blockOffset;
+        private final int termCount;
+
+        private Segment(Path file, MappedByteBuffer data, long[] keys, String[] blockFirst, int[] blockOffset, int termCount) {
+            this.file = file;
+            this.data = data;
+            this.keys = keys;
+            this.blockFirst = blockFirst;
+            this.blockOffset = blockOffset;
+            this.termCount = termCount;
+        }
+
+        static Segment open(Path file) throws IOException {
+            MappedByteBuffer data;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            int size = data.capacity();
+            if (size < 8 + FOOTER || data.getInt(0) != MAGIC) throw new IOException("Not a search segment: " + file);
+            int termCount = data.getInt(size - 8);
+            int blockCount = data.getInt(size - 4);
+            int blocksStart = (int) data.getLong(size - FOOTER + 8);
+
+            In in = new In(data, 8);
+            long[] keys = new long[data.getInt(4)];
+            long key = 0;
+            for (int i = 0; i < keys.length; i++) keys[i] = key += in.varLong();
+
+            String[] blockFirst = new String[blockCount];
+            int[] blockOffset = new int[blockCount];
+            for (int b = 0; b < blockCount; b++) {
+                blockOffset[b] = (int) data.getLong(blocksStart + b * 8);
+                In entry = new In(data, blockOffset[b]);
+                entry.varLong(); // shared, always 0 here
+                blockFirst[b] = new String(entry.bytes((int) entry.varLong()), StandardCharsets.UTF_8);
+            }
+            return new Segment(file, data, keys, blockFirst, blockOffset, termCount);
+        }
+
+        boolean hasKey(long key) { return Arrays.binarySearch(keys, key) >= 0; }
+
+        static class TermInfo {
+            final int docFreq;
+            final long offset;
+            final long length;
+
+            TermInfo(int docFreq, long offset, long length) {
+                this.docFreq = docFreq;
+                this.offset = offset;
+                this.length = length;
+            }
+        }
+
+        // Walks the dictionary in order, one block at a time
+        class TermCursor {
+            final Segment segment = Segment.this;
+            String term;
+            TermInfo info;
+            private int index = -1;
+            private In in;
+            private byte[] previous = new byte[0];
+
+            boolean next() {
+                if (++index >= termCount) return false;
+                if (index % BLOCK == 0) in = new In(data, blockOffset[index / BLOCK]);
+                int shared = (int) in.varLong();
+                byte[] suffix = in.bytes((int) in.varLong());
+                byte[] bytes = Arrays.copyOf(previous, shared + suffix.length);
+                System.arraycopy(suffix, 0, bytes, shared, suffix.length);
+                previous = bytes;
+                term = new String(bytes, StandardCharsets.UTF_8);
+                info = new TermInfo((int) in.varLong(), in.varLong(), in.varLong());
+                return true;
+            }
+
+            // Positions on the block holding the last term <= target
+            void seek(String target) {
+                int lo = 0, hi = blockFirst.length - 1, block = 0;
+                while (lo <= hi) {
+                    int mid = (lo + hi) >>> 1;
+                    if (blockFirst[mid].compareTo(target) <= 0) { block = mid; lo = mid + 1; }
+                    else hi = mid - 1;
+                }
+                index = block * BLOCK - 1;
+            }
+        }
+
+        TermCursor cursor() { return new TermCursor(); }
+
+        TermInfo find(String term) {
+            if (termCount == 0) return null;
+            TermCursor c = cursor();
+            c.seek(term);
+            for (int i = 0; i < BLOCK && c.next(); i++) {
+                int cmp = c.term.compareTo(term);
+                if (cmp == 0) return c.info;
+                if (cmp > 0) return null;
+            }
+            return null;
+        }
+
+        List<TermInfo> termsWithPrefix(String prefix, int max) {
+            List<TermInfo> found = new ArrayList<>();
+            if (termCount == 0) return found;
+            TermCursor c = cursor();
+            c.seek(prefix);
+            while (found.size() < max && c.next()) {
+                if (c.term.startsWith(prefix)) found.add(c.info);
+                else if (c.term.compareTo(prefix) > 0) break;
+            }
+            return found;
+        }
+
+        // Skips over the positions, only the keys are decoded
+        void collectUids(TermInfo t, LongList uids) {
+            In in = new In(data, (int) t.offset);
+            long key = 0;
+            for (int i = 0; i < t.docFreq; i++) {
+                key += in.varLong();
+                in.varLong();
+                in.skip((int) in.varLong());
+                uids.add(key >>> 1);
+            }
+        }
+
+        // Positions per key, for all documents or only those in 'only'
+        Map<Long, int[]> positions(TermInfo t, Set<Long> only) {
+            Map<Long, int[]> result = new HashMap<>();
+            In in = new In(data, (int) t.offset);
+            long key = 0;
+            for (int i = 0; i < t.docFreq; i++) {
+                key += in.varLong();
+                int freq = (int) in.varLong();
+                int length = (int) in.varLong();
+                if (only != null && !only.contains(key)) {
+                    in.skip(length);
+                    continue;
+                }
+                int[] positions = new int[freq];
+                int position = 0;
+                for (int j = 0; j < positions.length; j++) positions[j] = position += (int) in.varLong();
+                result.put(key, positions);
+            }
+            return result;
+        }
+
+        List<Posting> rawPostings(TermInfo t) {
+            List<Posting> result = new ArrayList<>(t.docFreq);
+            In in = new In(data, (int) t.offset);
+            long key = 0;
+            for (int i = 0; i < t.docFreq; i++) {
+                key += in.varLong();
+                int freq = (int) in.varLong();
+                result.add(new Posting(key, freq, in.bytes((int) in.varLong())));
+            }
+            return result;
+        }
+    }
+
+    // --- ENCODING HELPERS ---
+
+    private static class Out implements Closeable {
+        private final OutputStream out;
+        private long position;
+
+        Out(OutputStream out) { this.out = out; }
+
+        void varLong(long value) {
+            while ((value & ~0x7FL) != 0) {
+                write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        void fixedInt(int value) {
+            for (int shift = 24; shift >= 0; shift -= 8) write(value >>> shift);
+        }
+
+        void fixedLong(long value) {
+            fixedInt((int) (value >>> 32));
+            fixedInt((int) value);
+        }
+
+        void bytes(byte[] bytes) {
+            try { out.write(bytes); } catch (IOException e) { throw new UncheckedIOException(e); }
+            position += bytes.length;
+        }
+
+        private void write(int b) {
+            try { out.write(b); } catch (IOException e) { throw new UncheckedIOException(e); }
+            position++;
+        }
+
+        long position() { return position; }
+
+        byte[] toByteArray() { return ((ByteArrayOutputStream) out).toByteArray(); }
+
+        @Override public void close() throws IOException { out.close(); }
+    }
+
+    private static class In {
+        private final MappedByteBuffer data;
+        private int pos;
+
+        In(MappedByteBuffer data, int pos) {
+            this.data = data;
+            this.pos = pos;
+        }
+
+        long varLong() {
+            long value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data.get(pos++);
+                value |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            return value;
+        }
+
+        byte[] bytes(int count) {
+            byte[] bytes = new byte[count];
+            data.get(pos, bytes);
+            pos += count;
+            return bytes;
+        }
+
+        void skip(int count) { pos += count; }
+    }
+
+    // Growable long[]; UID lists for common words run into the hundreds of thousands
+    private static class LongList {
+        private long[] values = new long[64];
+        private int size;
+
+        void add(long value) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+
+        long get(int index) { return values[index]; }
+
+        int size() { return size; }
+
+        long[] sortedDistinct() {
+            long[] sorted = Arrays.copyOf(values, size);
+            Arrays.sort(sorted);
+            int n = 0;
+            for (int i = 0; i < sorted.length; i++) if (n == 0 || sorted[i] != sorted[n - 1]) sorted[n++] = sorted[i];
+            return Arrays.copyOf(sorted, n);
+        }
+    }
+}
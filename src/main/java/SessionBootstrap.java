@@ -0,0 +1,79 @@
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// Login for both protocols at once. The IMAP login that checks the password
+// becomes the receiver's first pooled connection instead of being thrown away,
+// and the SMTP handshake runs at the same time on its own thread, so opening
+// the inbox and sending the first mail both start on an authenticated connection.
+//
+// IMAP decides whether the login worked. SMTP only has to be done, failed, or
+// still going after SMTP_WAIT_MILLIS; in that last case the session is reported
+// ready anyway and the warm-up finishes in the background.
+public class SessionBootstrap {
+
+    private static final long SMTP_WAIT_MILLIS = 3000;
+
+    // What the screens get once the login went through
+    public static class Session {
+        public final EmailReceiver receiver;
+        public final EmailSender sender;
+        public final long imapMillis;
+        public final long smtpMillis;  // -1 while the warm-up is still running or if it failed
+        public final String smtpError; // why the warm-up failed, null otherwise
+
+        Session(EmailReceiver receiver, EmailSender sender, long imapMillis, long smtpMillis, String smtpError) {
+            this.receiver = receiver;
+            this.sender = sender;
+            this.imapMillis = imapMillis;
+            this.smtpMillis = smtpMillis;
+            this.smtpError = smtpError;
+        }
+
+        public boolean isSendReady() { return smtpMillis >= 0; }
+
+        @Override public String toString() {
+            String smtp = smtpError != null ? "failed (" + smtpError + ")"
+                    : smtpMillis >= 0 ? smtpMillis + " ms" : "still connecting";
+            return "IMAP " + imapMillis + " ms, SMTP " + smtp;
+        }
+    }
+
+    // Blocks until IMAP is logged in; throws if it can't be, with nothing left open
+    public static Session open(String email, String password) throws Exception {
+        EmailSender sender = new EmailSender(email, password);
+        long started = System.nanoTime();
+        FutureTask<Long> smtp = new FutureTask<>(() -> {
+            sender.warmUp();
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+        });
+        Thread warmUp = new Thread(smtp, "smtp-warmup");
+        warmUp.setDaemon(true);
+        warmUp.start();
+
+        EmailReceiver receiver = new EmailReceiver(email, password);
+        try (Metrics.Sample sample = Metrics.start("session.ready")) {
+            try {
+                receiver.validateLogin();
+            } catch (Exception e) {
+                receiver.close();
+                sender.close(); // a warm-up still under way is closed when it completes
+                throw e;
+            }
+            long imapMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+
+            long smtpMillis = -1;
+            String smtpError = null;
+            try {
+                smtpMillis = smtp.get(SMTP_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (ExecutionException e) {
+                smtpError = e.getCause().getMessage();
+            } catch (TimeoutException e) {
+                // keeps going; the outbox connects on its own if it gets there first
+            }
+            sample.ok();
+            return new Session(receiver, sender, imapMillis, smtpMillis, smtpError);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+import javafx.concurrent.Task;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Runs all background work started from the screens on one bounded pool.
+// Tasks submitted under the same key supersede each other: the older one is
+// cancelled, so its result never reaches the screen.
+//
+// Platform threads on purpose: Angus Mail blocks on sockets inside synchronized
+// blocks, which would pin virtual threads to their carriers.
+public class TaskScheduler {
+    private final ThreadPoolExecutor executor;
+    private final Map<String, Task<?>> latest = new ConcurrentHashMap<>();
+    private final AtomicInteger running = new AtomicInteger();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder totalLatencyNanos = new LongAdder();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+    public TaskScheduler(int threads) {
+        AtomicInteger counter = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "ui-task-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    // Cancels whatever was last submitted under this key, then runs the task
+    public <T> Task<T> submit(String key, Task<T> task) {
+        Task<?> previous = latest.put(key, task);
+        if (previous != null && previous != task) previous.cancel(false);
+        schedule(key, task);
+        return task;
+    }
+
+    // For work that nothing supersedes (e.g. each attachment download)
+    public <T> Task<T> submit(Task<T> task) {
+        schedule(null, task);
+        return task;
+    }
+
+    public void execute(Runnable work) {
+        schedule(null, new Task<Void>() {
+            @Override protected Void call() {
+                work.run();
+                return null;
+            }
+        });
+    }
+
+    // Drops everything a screen started, e.g. when the user navigates away
+    public void cancelAll(String keyPrefix) {
+        latest.forEach((key, task) -> {
+            if (key.startsWith(keyPrefix) && latest.remove(key, task)) task.cancel(false);
+        });
+    }
+
+    private void schedule(String key, Task<?> task) {
+        long submittedAt = System.nanoTime();
+        executor.execute(() -> {
+            running.incrementAndGet();
+            try {
+                if (!task.isCancelled()) task.run();
+            } finally {
+                running.decrementAndGet();
+                long latency = System.nanoTime() - submittedAt;
+                completed.increment();
+                totalLatencyNanos.add(latency);
+                maxLatencyNanos.accumulateAndGet(latency, Math::max);
+                if (key != null) latest.remove(key, task);
+            }
+        });
+    }
+
+    public int getQueueDepth() { return executor.getQueue().size(); }
+
+    public int getRunningCount() { return running.get(); }
+
+    public long getCompletedCount() { return completed.sum(); }
+
+    // Submit-to-finish, queue wait included
+    public double getAverageLatencyMillis() {
+        long count = completed.sum();
+        return count == 0 ? 0 : totalLatencyNanos.sum() / 1e6 / count;
+    }
+
+    public double getMaxLatencyMillis() { return maxLatencyNanos.get() / 1e6; }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
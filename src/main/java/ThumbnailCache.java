@@ -0,0 +1,212 @@
+import javafx.concurrent.Task;
+import javafx.scene.image.Image;
+import javafx.scene.image.ImageView;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.PixelReader;
+import javafx.scene.image.WritableImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+// Small previews of image files for the compose and reading screens.
+// Images are decoded on the task pool straight at preview size, so a 20 MP photo
+// never exists in memory at full resolution. Decoded thumbnails are kept in a
+// small in-memory LRU and on disk, keyed by a hash of the file's content, so the
+// same picture is decoded once however often it is attached or downloaded.
+//
+// Disk format: "GTH1", width, height, then the BGRA pixels deflated.
+public class ThumbnailCache {
+
+    private static final int MAGIC = 0x47544831; // "GTH1"
+    private static final long MAX_MEMORY_BYTES = 16L * 1024 * 1024;
+    private static final long MAX_DISK_BYTES = 64L * 1024 * 1024;
+
+    private final Path dir;
+    private final TaskScheduler tasks;
+    private long memoryBytes;
+    private final LinkedHashMap<String, Image> memory = new LinkedHashMap<>(16, 0.75f, true); // guarded by this
+    private final Map<String, String> hashes = new LinkedHashMap<>(16, 0.75f, true) {        // guarded by this
+        @Override protected boolean removeEldestEntry(Map.Entry<String, String> eldest) { return size() > 512; }
+    };
+
+    public ThumbnailCache(Path dir, TaskScheduler tasks) {
+        this.dir = dir;
+        this.tasks = tasks;
+        tasks.execute(this::trimDisk);
+    }
+
+    public static boolean isImage(String fileName) {
+        String name = fileName.toLowerCase();
+        return name.endsWith(".jpg") || name.endsWith(".jpeg") || name.endsWith(".png") || name.endsWith(".gif") || name.endsWith(".bmp");
+    }
+
+    // Fills the view once the thumbnail is ready; it stays empty meanwhile. A view
+    // that was reused for another file before then is left alone.
+    public void show(File file, int size, ImageView view) {
+        String request = file.getAbsolutePath() + "|" + size;
+        view.setUserData(request);
+        Task<Image> task = new Task<>() {
+            @Override protected Image call() throws Exception {
+                return ThumbnailCache.this.get(file, size);
+            }
+        };
+        task.setOnSucceeded(e -> {
+            if (request.equals(view.getUserData()) && task.getValue() != null) view.setImage(task.getValue());
+        });
+        task.setOnFailed(e -> System.err.println("Thumbnail of " + file + " failed: " + task.getException().getMessage()));
+        tasks.submit(task);
+    }
+
+    // Fits within size x size, keeping the aspect ratio; null if the file isn't a readable image.
+    // Blocks, so not on the FX thread.
+    public Image get(File file, int size) throws IOException {
+        String key = contentHash(file) + "-" + size;
+        synchronized (this) {
+            Image cached = memory.get(key);
+            if (cached != null) return cached;
+        }
+
+        Path stored = dir.resolve(key + ".thumb");
+        Image image = null;
+        if (Files.exists(stored)) {
+            try {
+                image = read(stored);
+                Files.setLastModifiedTime(stored, FileTime.fromMillis(System.currentTimeMillis())); // recently used
+            } catch (IOException e) {
+                Files.deleteIfExists(stored); // damaged, decode again
+            }
+        }
+        if (image == null) {
+            // Decoded at the requested size; JPEGs are even scaled down while being read
+            image = new Image(file.toURI().toString(), size, size, true, true, false);
+            if (image.isError()) return null;
+            try {
+                write(stored, image);
+            } catch (IOException e) {
+                System.err.println("Thumbnail cache: could not store " + key + ": " + e.getMessage());
+            }
+        }
+        remember(key, image);
+        return image;
+    }
+
+    private synchronized void remember(String key, Image image) {
+        if (memory.put(key, image) == null) memoryBytes += bytes(image);
+        Iterator<Image> eldest = memory.values().iterator();
+        while (memoryBytes > MAX_MEMORY_BYTES && memory.size() > 1) {
+            memoryBytes -= bytes(eldest.next());
+            eldest.remove();
+        }
+    }
+
+    private static long bytes(Image image) {
+        return (long) image.getWidth() * (long) image.getHeight() * 4;
+    }
+
+    // Hashing is cheap next to decoding, but is still skipped for a file seen before unchanged
+    private String contentHash(File file) throws IOException {
+        String stamp = file.getAbsolutePath() + "|" + file.length() + "|" + file.lastModified();
+        synchronized (this) {
+            String known = hashes.get(stamp);
+            if (known != null) return known;
+        }
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            int n;
+            while ((n = in.read(buffer)) > 0) digest.update(buffer, 0, n);
+        }
+        String hash = HexFormat.of().formatHex(digest.digest());
+        synchronized (this) { hashes.put(stamp, hash); }
+        return hash;
+    }
+
+    // --- DISK ---
+
+    private static Image read(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new InflaterInputStream(new BufferedInputStream(Files.newInputStream(file))))) {
+            if (in.readInt() != MAGIC) throw new IOException("not a thumbnail");
+            int width = in.readInt();
+            int height = in.readInt();
+            if (width <= 0 || height <= 0 || width > 4096 || height > 4096) throw new IOException("bad size");
+            byte[] pixels = new byte[width * height * 4];
+            in.readFully(pixels);
+            WritableImage image = new WritableImage(width, height);
+            image.getPixelWriter().setPixels(0, 0, width, height, PixelFormat.getByteBgraInstance(), pixels, 0, width * 4);
+            return image;
+        }
+    }
+
+    private void write(Path file, Image image) throws IOException {
+        PixelReader reader = image.getPixelReader();
+        if (reader == null) return;
+        int width = (int) image.getWidth();
+        int height = (int) image.getHeight();
+        byte[] pixels = new byte[width * height * 4];
+        reader.getPixels(0, 0, width, height, PixelFormat.getByteBgraInstance(), pixels, 0, width * 4);
+
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, "thumb", ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp))))) {
+                out.writeInt(MAGIC);
+                out.writeInt(width);
+                out.writeInt(height);
+                out.write(pixels);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    // Least recently used thumbnails go first once the directory outgrows its budget
+    private void trimDisk() {
+        if (!Files.isDirectory(dir)) return;
+        List<Path> files = new ArrayList<>();
+        long total = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path file : stream) {
+                if (file.getFileName().toString().endsWith(".tmp")) {
+                    Files.deleteIfExists(file);
+                    continue;
+                }
+                files.add(file);
+                total += Files.size(file);
+            }
+            if (total <= MAX_DISK_BYTES) return;
+            files.sort((a, b) -> Long.compare(a.toFile().lastModified(), b.toFile().lastModified()));
+            for (Path file : files) {
+                if (total <= MAX_DISK_BYTES * 3 / 4) break;
+                total -= Files.size(file);
+                Files.deleteIfExists(file);
+            }
+        } catch (IOException e) {
+            System.err.println("Thumbnail cache: could not trim " + dir + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,136 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+// One folder of every account as a single list, newest first. Each account is
+// read a page at a time from its newest message down and the pages are merged
+// by date, so showing the first 50 rows costs one page per account, not the
+// whole folders. The next page of an account is fetched in the background
+// (through the shared scheduler) once its current one is half used up.
+//
+// Within an account, messages come in the order the server stored them, which
+// is by date for nearly all mail; a message with an older Date header than its
+// neighbours is shown where it was delivered.
+public class UnifiedInbox {
+    static final int PAGE_SIZE = 50;
+
+    public static class Item {
+        public final String account;
+        public final EmailReceiver.EmailHeader header;
+
+        Item(String account, EmailReceiver.EmailHeader header) {
+            this.account = account;
+            this.header = header;
+        }
+
+        long time() { return header.date != null ? header.date.getTime() : 0; }
+    }
+
+    // One account's messages, newest first, a page buffered at a time
+    private class Stream {
+        final AccountManager.Account account;
+        final ArrayDeque<Item> buffer = new ArrayDeque<>();
+        int nextSequence = -1;  // highest sequence number not yet read; -1 until the first page
+        Future<List<EmailReceiver.EmailHeader>> pending;
+
+        Stream(AccountManager.Account account) {
+            this.account = account;
+        }
+
+        boolean exhausted() { return nextSequence == 0 && buffer.isEmpty() && pending == null; }
+
+        void requestPage() {
+            if (pending != null || nextSequence == 0) return;
+            pending = accounts.getScheduler().submit(account.email, () -> {
+                EmailReceiver receiver = account.receiver;
+                if (nextSequence < 0) nextSequence = receiver.getMessageCount(folderName);
+                int last = nextSequence;
+                int first = Math.max(1, last - PAGE_SIZE + 1);
+                nextSequence = last < 1 ? 0 : first - 1;
+                return last < 1 ? List.of() : receiver.getHeadersBySequence(folderName, first, last);
+            });
+        }
+
+        // Waits for the page on its way, if the buffer is empty
+        boolean fill() throws Exception {
+            while (buffer.isEmpty() && !exhausted()) {
+                requestPage();
+                takePage();
+            }
+            if (buffer.size() < PAGE_SIZE / 2) requestPage();
+            return !buffer.isEmpty();
+        }
+
+        private void takePage() throws Exception {
+            List<EmailReceiver.EmailHeader> page;
+            try {
+                page = pending.get();
+            } catch (ExecutionException e) {
+                nextSequence = 0; // one account failing shouldn't take the whole list down
+                System.err.println("Unified inbox: " + account.email + ": " + e.getCause().getMessage());
+                page = List.of();
+            } finally {
+                pending = null;
+            }
+            List<EmailReceiver.EmailHeader> sorted = new ArrayList<>(page);
+            sorted.sort(Comparator.comparing((EmailReceiver.EmailHeader h) -> h.date != null ? h.date : new Date(0)).reversed());
+            for (EmailReceiver.EmailHeader header : sorted) buffer.add(new Item(account.email, header));
+        }
+    }
+
+    private final AccountManager accounts;
+    private final String folderName;
+    private final PriorityQueue<Stream> heads = new PriorityQueue<>(
+            Comparator.comparingLong((Stream s) -> s.buffer.peekFirst().time()).reversed());
+    private final List<Stream> waiting = new ArrayList<>(); // streams whose buffer ran dry
+    private final List<Item> loaded = new ArrayList<>();
+
+    UnifiedInbox(AccountManager accounts, String folderName) {
+        this.accounts = accounts;
+        this.folderName = folderName;
+        for (AccountManager.Account account : accounts.getAccounts()) {
+            Stream stream = new Stream(account);
+            stream.requestPage(); // every account's first page is fetched side by side
+            waiting.add(stream);
+        }
+    }
+
+    public String getFolderName() { return folderName; }
+
+    // Rows offset..offset+count-1 of the merged list; fewer at the end. Blocks on the network
+    // only for pages that aren't here yet, so call it off the FX thread.
+    public synchronized List<Item> get(int offset, int count) throws Exception {
+        while (loaded.size() < offset + count && advance()) {
+            // loaded grows by one per step
+        }
+        if (offset >= loaded.size()) return new ArrayList<>();
+        return new ArrayList<>(loaded.subList(offset, Math.min(loaded.size(), offset + count)));
+    }
+
+    public synchronized boolean isComplete() {
+        return heads.isEmpty() && waiting.isEmpty();
+    }
+
+    // Moves the newest remaining message of any account to the end of 'loaded'
+    private boolean advance() throws Exception {
+        for (Stream stream : waiting) {
+            if (stream.fill()) heads.add(stream);
+        }
+        waiting.clear();
+        Stream newest = heads.poll();
+        if (newest == null) return false;
+        loaded.add(newest.buffer.pollFirst());
+        if (newest.buffer.isEmpty() && newest.exhausted()) return true;
+        if (newest.buffer.isEmpty()) waiting.add(newest);
+        else {
+            newest.fill(); // starts the next page early; doesn't block while items are left
+            heads.add(newest);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,107 @@
+import javax.net.SocketFactory;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Properties;
+import java.util.concurrent.atomic.LongAdder;
+
+// Counts the bytes that actually cross the network for each protocol, as the
+// wire.<protocol>.in / .out counters. Installed as the mail session's socket
+// factory, so it sits under TLS and under COMPRESS=DEFLATE: comparing these
+// counters with the message sizes the operations record (or with a run that
+// has the optimisations off) shows what compression and chunking save.
+// Angus layers TLS over a plain socket from this factory for imaps and STARTTLS.
+public class WireCounter extends SocketFactory {
+    static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("golden.wire.stats", "true"));
+
+    private final LongAdder in;
+    private final LongAdder out;
+
+    private WireCounter(String protocol) {
+        this.in = Metrics.counter("wire." + protocol + ".in");
+        this.out = Metrics.counter("wire." + protocol + ".out");
+    }
+
+    // Sets the counting factory on a session's properties for "imap", "imaps" or "smtp"
+    public static void install(Properties props, String protocol) {
+        if (!ENABLED) return;
+        props.put("mail." + protocol + ".socketFactory", new WireCounter(protocol.startsWith("imap") ? "imap" : protocol));
+        props.put("mail." + protocol + ".socketFactory.fallback", "false");
+    }
+
+    @Override public Socket createSocket() {
+        return new CountingSocket();
+    }
+
+    @Override public Socket createSocket(String host, int port) throws IOException {
+        Socket socket = new CountingSocket();
+        socket.connect(new InetSocketAddress(host, port));
+        return socket;
+    }
+
+    @Override public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+        Socket socket = new CountingSocket();
+        socket.bind(new InetSocketAddress(localHost, localPort));
+        socket.connect(new InetSocketAddress(host, port));
+        return socket;
+    }
+
+    @Override public Socket createSocket(InetAddress host, int port) throws IOException {
+        Socket socket = new CountingSocket();
+        socket.connect(new InetSocketAddress(host, port));
+        return socket;
+    }
+
+    @Override public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+        Socket socket = new CountingSocket();
+        socket.bind(new InetSocketAddress(localAddress, localPort));
+        socket.connect(new InetSocketAddress(address, port));
+        return socket;
+    }
+
+    private class CountingSocket extends Socket {
+        private InputStream countedIn;
+        private OutputStream countedOut;
+
+        @Override public synchronized InputStream getInputStream() throws IOException {
+            if (countedIn == null) {
+                countedIn = new FilterInputStream(super.getInputStream()) {
+                    @Override public int read() throws IOException {
+                        int b = super.read();
+                        if (b >= 0) WireCounter.this.in.increment();
+                        return b;
+                    }
+
+                    @Override public int read(byte[] buffer, int offset, int length) throws IOException {
+                        int n = super.read(buffer, offset, length);
+                        if (n > 0) WireCounter.this.in.add(n);
+                        return n;
+                    }
+                };
+            }
+            return countedIn;
+        }
+
+        @Override public synchronized OutputStream getOutputStream() throws IOException {
+            if (countedOut == null) {
+                countedOut = new FilterOutputStream(super.getOutputStream()) {
+                    @Override public void write(int b) throws IOException {
+                        out.write(b);
+                        WireCounter.this.out.increment();
+                    }
+
+                    @Override public void write(byte[] buffer, int offset, int length) throws IOException {
+                        out.write(buffer, offset, length); // FilterOutputStream would go byte by byte
+                        WireCounter.this.out.add(length);
+                    }
+                };
+            }
+            return countedOut;
+        }
+    }
+}
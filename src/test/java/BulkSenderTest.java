@@ -0,0 +1,29 @@
+import jakarta.mail.internet.MimeBodyPart;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BulkSenderTest {
+
+    // The pre-encoded part must carry its own Content-Type, or receivers show it as base64 text
+    @Test
+    void encodedAttachmentKeepsTypeAndName(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("photo.jpg");
+        byte[] bytes = new byte[3000];
+        for (int i = 0; i < bytes.length; i++) bytes[i] = (byte) i;
+        Files.write(file, bytes);
+
+        MimeBodyPart parsed = new MimeBodyPart(new ByteArrayInputStream(BulkSender.encodeOnce(file.toFile())));
+
+        assertTrue(parsed.isMimeType("image/jpeg"), parsed.getContentType());
+        assertEquals("photo.jpg", parsed.getFileName());
+        assertEquals("base64", parsed.getEncoding());
+        assertArrayEquals(bytes, parsed.getInputStream().readAllBytes());
+    }
+}
@@ -0,0 +1,22 @@
+import org.junit.jupiter.api.Test;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class EmailReceiverTest {
+    private static final Path DOWNLOADS = Paths.get(System.getProperty("user.home"), "Downloads");
+
+    // Attachment names come from the sender; whatever they say, the file lands directly in Downloads
+    @Test
+    void downloadPathStaysInDownloads() {
+        for (String hostile : new String[] { "..", ".", "", "  ", "../../.bashrc", "..\\evil.exe", "/etc/passwd", null }) {
+            Path target = EmailReceiver.getDownloadPath(hostile);
+            assertEquals(DOWNLOADS, target.normalize().getParent(), String.valueOf(hostile));
+        }
+        assertEquals(DOWNLOADS.resolve("attachment"), EmailReceiver.getDownloadPath(".."));
+        assertEquals(DOWNLOADS.resolve(".bashrc"), EmailReceiver.getDownloadPath("../../.bashrc"));
+        assertEquals(DOWNLOADS.resolve("a_b.pdf"), EmailReceiver.getDownloadPath("a\nb.pdf"));
+        assertEquals(DOWNLOADS.resolve("report.pdf"), EmailReceiver.getDownloadPath("report.pdf"));
+    }
+}
@@ -0,0 +1,66 @@
+import javafx.concurrent.Task;
+import org.junit.jupiter.api.Test;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class PagedMessageListTest {
+
+    // Keeps the page fetches instead of running them; without the FX toolkit a Task can't report back
+    private static class RecordingScheduler extends TaskScheduler {
+        final List<Task<?>> submitted = new ArrayList<>();
+
+        RecordingScheduler() { super(1); }
+
+        @Override public <T> Task<T> submit(Task<T> task) {
+            submitted.add(task);
+            return task;
+        }
+    }
+
+    private static EmailReceiver.EmailHeader header(int seq) {
+        EmailReceiver.EmailHeader h = new EmailReceiver.EmailHeader();
+        h.uid = 1000 + seq;
+        h.messageNumber = seq;
+        return h;
+    }
+
+    private static Object runLoad(Task<?> task) throws Exception {
+        Method call = task.getClass().getDeclaredMethod("call");
+        call.setAccessible(true);
+        return call.invoke(task);
+    }
+
+    // The inbox preloads the newest 100 by sequence number (count-99..count), which with
+    // 250 messages fills page 2 and half of page 1; rows 101-150 must still be fetched
+    @Test
+    void rowsInHalfPreloadedPageAreFetched() throws Exception {
+        RecordingScheduler tasks = new RecordingScheduler();
+        List<int[]> loads = new ArrayList<>();
+        PagedMessageList rows = new PagedMessageList(250, (first, last) -> {
+            loads.add(new int[] { first, last });
+            List<EmailReceiver.EmailHeader> page = new ArrayList<>();
+            for (int seq = first; seq <= last; seq++) page.add(header(seq));
+            return page;
+        }, tasks);
+        List<EmailReceiver.EmailHeader> newest = new ArrayList<>();
+        for (int seq = 250; seq >= 151; seq--) newest.add(header(seq));
+        rows.preload(newest);
+
+        for (int index = 0; index < 100; index++) assertNotNull(rows.get(index)); // sequences 250..151
+        assertEquals(0, tasks.submitted.size());
+
+        assertNull(rows.get(100)); // sequence 150
+        assertEquals(1, tasks.submitted.size());
+        runLoad(tasks.submitted.get(0));
+        assertEquals(101, loads.get(0)[0]);
+        assertEquals(200, loads.get(0)[1]);
+
+        rows.get(100);
+        assertEquals(1, tasks.submitted.size()); // already in flight, not asked for twice
+    }
+}